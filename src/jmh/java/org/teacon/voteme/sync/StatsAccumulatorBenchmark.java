@@ -0,0 +1,110 @@
+package org.teacon.voteme.sync;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.ImmutableIntArray;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.resources.ResourceLocation;
+import org.openjdk.jmh.annotations.*;
+import org.teacon.voteme.sync.VoteSynchronizer.Vote;
+import org.teacon.voteme.sync.VoteSynchronizer.VoteKey;
+import org.teacon.voteme.sync.VoteSynchronizer.VoteStatsKey;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/*
+ * Run with './gradlew jmh'.
+ *
+ * Each invocation accumulates a batch of votes, half of which replace previous votes, and builds the stats map,
+ * which is what synchronizers do for each batch of published votes. The per level maps keyed by stats keys are
+ * how stats were accumulated before the packed table, and are kept here as the baseline.
+ */
+@State(Scope.Thread)
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StatsAccumulatorBenchmark {
+    private static final int MAX_LEVEL = 5;
+
+    @Param({"1000"})
+    public int batchSize;
+
+    private Vote[] previousVotes;
+    private Vote[] votes;
+
+    private final StatsAccumulator accumulator = new StatsAccumulator();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(20210109L);
+        List<UUID> artifacts = IntStream.range(0, 50).mapToObj(i -> new UUID(random.nextLong(), random.nextLong())).toList();
+        List<ResourceLocation> categories = List.of(new ResourceLocation("voteme", "general"), new ResourceLocation("voteme", "creativity"));
+        List<ImmutableSet<ResourceLocation>> roleSets = List.of(
+                ImmutableSet.of(new ResourceLocation("voteme", "general_players")),
+                ImmutableSet.of(new ResourceLocation("voteme", "general_players"), new ResourceLocation("voteme", "professional_judges")),
+                ImmutableSet.of(new ResourceLocation("voteme", "general_players"), new ResourceLocation("voteme", "media_judges")));
+        Instant time = Instant.parse("2021-01-09T02:00:00Z");
+        this.previousVotes = new Vote[this.batchSize];
+        this.votes = new Vote[this.batchSize];
+        for (int i = 0; i < this.batchSize; ++i) {
+            UUID artifactID = artifacts.get(random.nextInt(artifacts.size()));
+            ResourceLocation categoryID = categories.get(random.nextInt(categories.size()));
+            VoteKey key = new VoteKey(artifactID, categoryID, new UUID(random.nextLong(), random.nextLong()));
+            ImmutableSet<ResourceLocation> roles = roleSets.get(random.nextInt(roleSets.size()));
+            if (i % 2 == 0) {
+                this.previousVotes[i] = new Vote(key, 1 + random.nextInt(MAX_LEVEL), roles, time);
+            }
+            this.votes[i] = new Vote(key, 1 + random.nextInt(MAX_LEVEL), roles, time.plusSeconds(i + 1));
+        }
+    }
+
+    @Benchmark
+    public Map<VoteStatsKey, ImmutableIntArray> packedTable() {
+        StatsAccumulator accumulator = this.accumulator;
+        accumulator.clear();
+        for (int i = 0; i < this.batchSize; ++i) {
+            if (this.previousVotes[i] != null) {
+                accumulator.subtract(this.previousVotes[i]);
+            }
+            accumulator.accumulate(this.votes[i]);
+        }
+        Map<VoteStatsKey, ImmutableIntArray> result = new HashMap<>();
+        accumulator.buildStatsMap(result);
+        return result;
+    }
+
+    @Benchmark
+    public Map<VoteStatsKey, ImmutableIntArray> perLevelMaps() {
+        List<Object2IntMap<VoteStatsKey>> countMaps = IntStream.range(0, MAX_LEVEL + 1)
+                .<Object2IntMap<VoteStatsKey>>mapToObj(level -> new Object2IntOpenHashMap<>()).toList();
+        for (int i = 0; i < this.batchSize; ++i) {
+            if (this.previousVotes[i] != null) {
+                add(countMaps, this.previousVotes[i], -1);
+            }
+            add(countMaps, this.votes[i], 1);
+        }
+        Map<VoteStatsKey, int[]> counts = new HashMap<>();
+        for (int level = 0; level <= MAX_LEVEL; ++level) {
+            for (Object2IntMap.Entry<VoteStatsKey> entry : countMaps.get(level).object2IntEntrySet()) {
+                counts.computeIfAbsent(entry.getKey(), k -> new int[1 + MAX_LEVEL])[level] = entry.getIntValue();
+            }
+        }
+        Map<VoteStatsKey, ImmutableIntArray> result = new HashMap<>();
+        counts.forEach((key, value) -> result.put(key, ImmutableIntArray.copyOf(value)));
+        return result;
+    }
+
+    private static void add(List<Object2IntMap<VoteStatsKey>> countMaps, Vote vote, int diff) {
+        for (ResourceLocation roleID : vote.roles()) {
+            VoteStatsKey key = new VoteStatsKey(vote.key().artifactID(), vote.key().categoryID(), roleID);
+            countMaps.get(vote.level()).mergeInt(key, diff, Integer::sum);
+            countMaps.get(0).mergeInt(key, -diff, Integer::sum);
+        }
+    }
+}
@@ -9,6 +9,9 @@ import javax.annotation.ParametersAreNonnullByDefault;
 @ParametersAreNonnullByDefault
 public final class VoteMeConfig {
     public final ForgeConfigSpec.ConfigValue<String> REDIS_ATTACH_URI;
+    public final ForgeConfigSpec.BooleanValue REDIS_BATCH_SYNC;
+    public final ForgeConfigSpec.BooleanValue REDIS_BINARY_SYNC;
+    public final ForgeConfigSpec.BooleanValue VOTE_LIST_WARMUP;
 
     public VoteMeConfig(ForgeConfigSpec.Builder builder) {
         REDIS_ATTACH_URI = builder
@@ -16,5 +19,20 @@ public final class VoteMeConfig {
                         "Redis attach uri (example: redis://password@localhost:6379/0), env substitution supported",
                         "Set to empty (after env variables resolved) to disable redis attaching")
                 .define("redis_attach_uri", "${VOTEME_REDIS_ATTACH_URI:-}");
+        REDIS_BATCH_SYNC = builder
+                .comment(
+                        "Whether to publish announcements of a tick in batched redis sync messages instead of one by one",
+                        "Batched messages are always accepted, enable it after all the servers are updated")
+                .define("redis_batch_sync", false);
+        REDIS_BINARY_SYNC = builder
+                .comment(
+                        "Whether to publish redis sync messages in the binary format instead of snbt",
+                        "Messages in both formats are always accepted, enable it after all the servers are updated")
+                .define("redis_binary_sync", false);
+        VOTE_LIST_WARMUP = builder
+                .comment(
+                        "Whether to load votes of all the vote lists in the background after the server started",
+                        "Votes of a vote list are always loaded when the vote list is accessed for the first time")
+                .define("vote_list_warmup", true);
     }
 }
@@ -6,7 +6,10 @@ import com.google.common.collect.Maps;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonElement;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.Util;
 import net.minecraft.network.chat.Component;
 import net.minecraft.network.chat.HoverEvent;
 import net.minecraft.network.chat.MutableComponent;
@@ -25,6 +28,7 @@ import net.minecraftforge.network.PacketDistributor;
 import net.minecraftforge.server.ServerLifecycleHooks;
 import org.teacon.voteme.network.SyncCategoryPacket;
 import org.teacon.voteme.network.VoteMePacketManager;
+import org.teacon.voteme.roles.VoteRoleHandler;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.util.Collection;
@@ -38,6 +42,7 @@ public final class VoteCategoryHandler extends SimpleJsonResourceReloadListener
     private static final Gson GSON = new GsonBuilder().create();
 
     private static ImmutableMap<ResourceLocation, VoteCategory> categoryMap = ImmutableMap.of();
+    private static final Object2IntMap<ResourceLocation> categoryIndices = Util.make(new Object2IntOpenHashMap<>(), m -> m.defaultReturnValue(-1));
 
     public VoteCategoryHandler() {
         super(GSON, "vote_categories");
@@ -51,9 +56,21 @@ public final class VoteCategoryHandler extends SimpleJsonResourceReloadListener
         return categoryMap.keySet();
     }
 
+    public static int getIndex(ResourceLocation id) {
+        // indices are never reused (even if the category is removed) so that they could be cached
+        int index = categoryIndices.getInt(id);
+        if (index < 0) {
+            index = categoryIndices.size();
+            categoryIndices.put(id, index);
+        }
+        return index;
+    }
+
     @Override
     protected void apply(Map<ResourceLocation, JsonElement> objects, ResourceManager manager, ProfilerFiller profiler) {
         categoryMap = ImmutableSortedMap.copyOf(Maps.transformValues(objects, VoteCategory::fromJson));
+        categoryMap.keySet().forEach(VoteCategoryHandler::getIndex);
+        VoteRoleHandler.nextEpoch();
         MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
         if (server != null) {
             SyncCategoryPacket packet = SyncCategoryPacket.create(categoryMap);
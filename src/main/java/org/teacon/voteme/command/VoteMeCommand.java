@@ -14,6 +14,7 @@ import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
 import com.mojang.brigadier.suggestion.SuggestionProvider;
 import net.minecraft.ChatFormatting;
 import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.Util;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.SharedSuggestionProvider;
 import net.minecraft.nbt.CompoundTag;
@@ -25,12 +26,14 @@ import net.minecraft.server.MinecraftServer;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.world.entity.item.ItemEntity;
 import net.minecraft.world.item.ItemStack;
+import net.minecraft.world.level.storage.LevelResource;
 import net.minecraftforge.event.RegisterCommandsEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.server.permission.PermissionAPI;
 import net.minecraftforge.server.permission.nodes.PermissionNode;
 import org.apache.commons.lang3.tuple.Pair;
+import org.teacon.voteme.VoteMe;
 import org.teacon.voteme.category.VoteCategory;
 import org.teacon.voteme.category.VoteCategoryHandler;
 import org.teacon.voteme.item.CounterItem;
@@ -38,16 +41,21 @@ import org.teacon.voteme.item.VoterItem;
 import org.teacon.voteme.roles.VoteRoleHandler;
 import org.teacon.voteme.vote.VoteArtifactNames;
 import org.teacon.voteme.vote.VoteDataStorage;
+import org.teacon.voteme.vote.VoteLeaderboard;
 import org.teacon.voteme.vote.VoteList;
 
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.nio.file.Path;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
+import static com.mojang.brigadier.arguments.IntegerArgumentType.getInteger;
+import static com.mojang.brigadier.arguments.IntegerArgumentType.integer;
 import static com.mojang.brigadier.arguments.StringArgumentType.getString;
 import static com.mojang.brigadier.arguments.StringArgumentType.greedyString;
 import static net.minecraft.commands.Commands.argument;
@@ -78,6 +86,10 @@ public final class VoteMeCommand {
     public static final Dynamic2CommandExceptionType VOTE_ENABLED = new Dynamic2CommandExceptionType((c, a) -> Component.translatable("argument.voteme.vote_list.enabled", c, a));
     public static final DynamicCommandExceptionType VOTE_UNMODIFIABLE = new DynamicCommandExceptionType(c -> Component.translatable("argument.voteme.vote_list.unmodifiable", c));
 
+    public static final int DEFAULT_TOP_COUNT = 10;
+    public static final int DEFAULT_ACTIVITY_HOURS = 24;
+    public static final int MAX_ACTIVITY_HOURS = 24 * 7;
+
     public static final SuggestionProvider<CommandSourceStack> CATEGORY_SUGGESTION = (c, b) -> SharedSuggestionProvider.suggest(VoteCategoryHandler.getIds().stream().map(ResourceLocation::toString), b);
     public static final SuggestionProvider<CommandSourceStack> CATEGORY_SUGGESTION_ENABLED = (c, b) -> SharedSuggestionProvider.suggest(VoteCategoryHandler.getIds().stream().filter(VoteDataStorage.get(c.getSource().getServer())::hasEnabled).map(ResourceLocation::toString), b);
     public static final SuggestionProvider<CommandSourceStack> CATEGORY_SUGGESTION_MODIFIABLE = (c, b) -> SharedSuggestionProvider.suggest(VoteCategoryHandler.getIds().stream().filter(id -> VoteCategoryHandler.getCategory(id).filter(e -> e.enabledModifiable).isPresent()).map(ResourceLocation::toString), b);
@@ -113,6 +125,12 @@ public final class VoteMeCommand {
                                         .then(argument("category", id())
                                                 .suggests(CATEGORY_SUGGESTION_ENABLED)
                                                 .executes(VoteMeCommand::adminClearVotes))))
+                        .then(literal("score")
+                                .requires(permission(3, ADMIN))
+                                .executes(VoteMeCommand::adminScoreAll))
+                        .then(literal("export")
+                                .requires(permission(3, ADMIN))
+                                .executes(VoteMeCommand::adminExportAll))
                         .then(literal("switch")
                                 .requires(permission(3, ADMIN, ADMIN_SWITCH))
                                 .then(argument("artifact", artifact())
@@ -156,6 +174,21 @@ public final class VoteMeCommand {
                                 .then(argument("category", id())
                                         .suggests(CATEGORY_SUGGESTION)
                                         .executes(VoteMeCommand::queryVoterList))))
+                .then(literal("activity")
+                        .requires(permission(2, QUERY))
+                        .then(argument("artifact", artifact())
+                                .then(argument("category", id())
+                                        .suggests(CATEGORY_SUGGESTION)
+                                        .executes(VoteMeCommand::queryActivity)
+                                        .then(argument("hours", integer(1, MAX_ACTIVITY_HOURS))
+                                                .executes(VoteMeCommand::queryActivityWithHours)))))
+                .then(literal("top")
+                        .requires(permission(2, LIST))
+                        .then(argument("category", id())
+                                .suggests(CATEGORY_SUGGESTION_ENABLED)
+                                .executes(VoteMeCommand::topArtifacts)
+                                .then(argument("count", integer(1))
+                                        .executes(VoteMeCommand::topArtifactsWithCount))))
                 .then(literal("open")
                         .requires(permission(2, OPEN))
                         .then(argument("targets", players())
@@ -194,6 +227,22 @@ public final class VoteMeCommand {
         };
     }
 
+    private static int queryActivity(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
+        return processQueryActivity(context, DEFAULT_ACTIVITY_HOURS);
+    }
+
+    private static int queryActivityWithHours(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
+        return processQueryActivity(context, getInteger(context, "hours"));
+    }
+
+    private static int topArtifacts(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
+        return processTopArtifacts(context, DEFAULT_TOP_COUNT);
+    }
+
+    private static int topArtifactsWithCount(CommandContext<CommandSourceStack> context) throws CommandSyntaxException {
+        return processTopArtifacts(context, getInteger(context, "count"));
+    }
+
     private static int listRoles(CommandContext<CommandSourceStack> context) {
         Collection<? extends ResourceLocation> roles = VoteRoleHandler.getIds();
         int size = roles.size();
@@ -281,8 +330,7 @@ public final class VoteMeCommand {
         if (categoryOptional.isPresent()) {
             VoteCategory category = categoryOptional.get();
             boolean enabledDefault = category.enabledDefault;
-            int id = handler.getIdOrCreate(artifactID, location);
-            Optional<VoteList> entryOptional = handler.getVoteList(id).filter(e -> e.getEnabled().orElse(enabledDefault));
+            Optional<VoteList> entryOptional = Optional.of(handler.find(artifactID, location)).filter(e -> e.getEnabled().orElse(enabledDefault));
             if (entryOptional.isPresent()) {
                 int voted = 0;
                 VoteList votes = entryOptional.get();
@@ -329,8 +377,7 @@ public final class VoteMeCommand {
                 totalVoted.put(profile, LinkedListMultimap.<Integer, UUID>create());
             }
             for (UUID artifactID : artifactNames.getUUIDs()) {
-                int id = handler.getIdOrCreate(artifactID, location);
-                Optional<VoteList> entryOptional = handler.getVoteList(id).filter(e -> e.getEnabled().orElse(enabledDefault));
+                Optional<VoteList> entryOptional = Optional.of(handler.find(artifactID, location)).filter(e -> e.getEnabled().orElse(enabledDefault));
                 if (entryOptional.isPresent()) {
                     VoteList votes = entryOptional.get();
                     for (GameProfile profile : profiles) {
@@ -481,12 +528,47 @@ public final class VoteMeCommand {
         return Command.SINGLE_SUCCESS;
     }
 
+    private static int adminScoreAll(CommandContext<CommandSourceStack> context) {
+        long startNanos = System.nanoTime();
+        CommandSourceStack source = context.getSource();
+        MinecraftServer server = source.getServer();
+        VoteDataStorage.get(server).scoreAll().whenCompleteAsync((results, e) -> {
+            if (e != null) {
+                VoteMe.LOGGER.error("Failed to score vote lists", e);
+                source.sendFailure(Component.translatable("commands.voteme.admin.score.failure"));
+                return;
+            }
+            long millis = (System.nanoTime() - startNanos) / 1_000_000L;
+            VoteMe.LOGGER.info("Scored {} vote list(s) in {} category(s) in {} milliseconds.",
+                    results.size(), results.columnKeySet().size(), millis);
+            source.sendSuccess(() -> Component.translatable("commands.voteme.admin.score.success",
+                    results.size(), results.columnKeySet().size(), millis), true);
+        }, server);
+        return Command.SINGLE_SUCCESS;
+    }
+
+    private static int adminExportAll(CommandContext<CommandSourceStack> context) {
+        CommandSourceStack source = context.getSource();
+        MinecraftServer server = source.getServer();
+        String fileName = "voteme_export_" + Util.getFilenameFormattedDateTime() + ".json";
+        Path path = server.getWorldPath(LevelResource.ROOT).resolve(fileName);
+        VoteDataStorage.get(server).export(path).whenCompleteAsync((count, e) -> {
+            if (e != null) {
+                VoteMe.LOGGER.error("Failed to export vote data to " + path, e);
+                source.sendFailure(Component.translatable("commands.voteme.admin.export.failure"));
+                return;
+            }
+            source.sendSuccess(() -> Component.translatable("commands.voteme.admin.export.success", count, fileName), true);
+        }, server);
+        return Command.SINGLE_SUCCESS;
+    }
+
     private static int adminMergeVotes(CommandContext<CommandSourceStack> context) {
         UUID artifactIDFrom = getArtifact(context, "artifact-from"), artifactID = getArtifact(context, "artifact");
         VoteDataStorage handler = VoteDataStorage.get(context.getSource().getServer());
         VoteArtifactNames artifactNames = handler.getArtifactNames();
         for (ResourceLocation location : VoteCategoryHandler.getIds()) {
-            VoteList entryFrom = handler.getVoteList(handler.getIdOrCreate(artifactIDFrom, location)).orElseThrow(IllegalStateException::new);
+            VoteList entryFrom = handler.find(artifactIDFrom, location);
             VoteList entry = handler.getVoteList(handler.getIdOrCreate(artifactID, location)).orElseThrow(IllegalStateException::new);
             context.getSource().sendSuccess(() -> Component.translatable("commands.voteme.merge.success", entry.merge(entryFrom),
                     toCategoryText(location), toArtifactText(artifactNames, artifactIDFrom), toArtifactText(artifactNames, artifactID)), true);
@@ -593,6 +675,48 @@ public final class VoteMeCommand {
         throw VOTE_UNMODIFIABLE.create(toCategoryText(category.getKey()));
     }
 
+    private static int processQueryActivity(CommandContext<CommandSourceStack> context, int hours) throws CommandSyntaxException {
+        UUID artifactID = getArtifact(context, "artifact");
+        ResourceLocation location = getId(context, "category");
+        if (VoteCategoryHandler.getCategory(location).isPresent()) {
+            CommandSourceStack source = context.getSource();
+            VoteDataStorage handler = VoteDataStorage.get(source.getServer());
+            int[] activity = handler.find(artifactID, location).getHourlyActivity(Instant.now(), hours);
+            String counts = Arrays.stream(activity).mapToObj(Integer::toString).collect(Collectors.joining(", "));
+            source.sendSuccess(() -> Component.translatable("commands.voteme.activity.success", toCategoryText(location),
+                    toArtifactText(handler.getArtifactNames(), artifactID), hours, counts), false);
+            return Arrays.stream(activity).sum();
+        }
+        throw CATEGORY_NOT_FOUND.create(location);
+    }
+
+    private static int processTopArtifacts(CommandContext<CommandSourceStack> context, int count) throws CommandSyntaxException {
+        ResourceLocation location = getId(context, "category");
+        if (VoteCategoryHandler.getCategory(location).isPresent()) {
+            CommandSourceStack source = context.getSource();
+            VoteDataStorage handler = VoteDataStorage.get(source.getServer());
+            VoteArtifactNames artifactNames = handler.getArtifactNames();
+            VoteLeaderboard leaderboard = handler.getLeaderboard(location);
+            List<VoteLeaderboard.Entry> entries = leaderboard.top(count);
+            int size = entries.size(), total = leaderboard.size();
+            if (size > 0) {
+                source.sendSuccess(() -> Component.translatable("commands.voteme.top.success",
+                        size, total, toCategoryText(location)), false);
+                for (int i = 0; i < size; ++i) {
+                    int rank = i + 1;
+                    VoteLeaderboard.Entry entry = entries.get(i);
+                    String score = String.format("%.2f", entry.score());
+                    source.sendSuccess(() -> Component.translatable("commands.voteme.top.entry",
+                            rank, toArtifactText(artifactNames, entry.artifactID()), score), false);
+                }
+            } else {
+                source.sendSuccess(() -> Component.translatable("commands.voteme.top.none", toCategoryText(location)), false);
+            }
+            return size;
+        }
+        throw CATEGORY_NOT_FOUND.create(location);
+    }
+
     private static void processGiveItemToPlayer(ServerPlayer player, ItemStack item) {
         boolean succeed = player.getInventory().add(item);
         if (!succeed) {
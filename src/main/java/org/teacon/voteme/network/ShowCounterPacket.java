@@ -114,7 +114,7 @@ public final class ShowCounterPacket {
             for (ResourceLocation location : VoteCategoryHandler.getIds()) {
                 isValidCategoryID = isValidCategoryID || location.equals(categoryID);
                 VoteCategory category = VoteCategoryHandler.getCategory(location).orElseThrow(IllegalStateException::new);
-                VoteList entry = handler.getVoteList(handler.getIdOrCreate(artifactID, location)).orElseThrow(IllegalStateException::new);
+                VoteList entry = handler.find(artifactID, location);
                 boolean enabledCurrently = entry.getEnabled().orElse(category.enabledDefault);
                 if (category.enabledDefault || category.enabledModifiable || enabledCurrently) {
                     ImmutableList.Builder<Pair<Component, VoteList.Stats>> scoresBuilder = ImmutableList.builder();
@@ -167,7 +167,11 @@ public final class ShowCounterPacket {
             this.scores = scores;
             this.category = category;
             this.enabledCurrently = enabledCurrently;
-            this.finalStat = VoteList.Stats.combine(() -> scores.stream().map(Pair::getValue).iterator(), VoteList.Stats::getWeight);
+            VoteList.Stats.Accumulator accumulator = new VoteList.Stats.Accumulator();
+            for (Pair<Component, VoteList.Stats> entry : scores) {
+                accumulator.accumulate(entry.getValue(), VoteList.Stats::getWeight);
+            }
+            this.finalStat = accumulator.build();
         }
 
         @Override
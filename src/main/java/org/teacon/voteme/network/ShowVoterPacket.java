@@ -107,8 +107,7 @@ public final class ShowVoterPacket {
                 categoryIDs.addAll(role.categories.keySet());
             }
             for (ResourceLocation categoryID : categoryIDs) {
-                int id = handler.getIdOrCreate(artifactID, categoryID);
-                VoteList entry = handler.getVoteList(id).orElseThrow(IllegalStateException::new);
+                VoteList entry = handler.find(artifactID, categoryID);
                 VoteCategory category = VoteCategoryHandler.getCategory(categoryID).orElseThrow(IllegalStateException::new);
                 if (entry.getEnabled().orElse(category.enabledDefault)) {
                     builder.add(new Info(categoryID, category, entry.get(player)));
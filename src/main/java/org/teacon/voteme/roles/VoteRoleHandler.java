@@ -33,6 +33,7 @@ public final class VoteRoleHandler extends SimpleJsonResourceReloadListener {
     private static final Gson GSON = new GsonBuilder().create();
 
     private static SortedMap<ResourceLocation, VoteRole> roleMap = ImmutableSortedMap.of();
+    private static int epoch = 0;
 
     public VoteRoleHandler() {
         super(GSON, "vote_roles");
@@ -62,9 +63,24 @@ public final class VoteRoleHandler extends SimpleJsonResourceReloadListener {
         return roleMap.keySet();
     }
 
+    public static int getEpoch() {
+        // bumped whenever roles or categories are reloaded, so that caches built from them could be detected as stale
+        return epoch;
+    }
+
+    public static void nextEpoch() {
+        epoch += 1;
+    }
+
+    public static SortedMap<ResourceLocation, VoteRole> getAllRoles() {
+        // immutable, and replaced as a whole on reloading
+        return roleMap;
+    }
+
     @Override
     protected void apply(Map<ResourceLocation, JsonElement> objects, ResourceManager manager, ProfilerFiller profiler) {
         roleMap = ImmutableSortedMap.copyOf(Maps.transformEntries(objects, VoteRole::fromJson), Comparator.naturalOrder());
+        nextEpoch();
     }
 
     @SubscribeEvent
@@ -0,0 +1,300 @@
+package org.teacon.voteme.sync;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.ImmutableIntArray;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.Util;
+import net.minecraft.resources.ResourceLocation;
+import org.teacon.voteme.sync.VoteSynchronizer.*;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/*
+ * Layout (version 1):
+ *
+ * magic: byte (0xFE, which never starts a snbt message)
+ * version: byte
+ * announcement count: varint
+ * announcements: (type: byte, followed by fields of the type) * announcement count
+ *   artifact (0): artifact: uuid, name: string, alias: byte (0 or 1), string if the alias exists
+ *   comments (1): artifact: uuid, voter: uuid, comment count: varint, string * comment count
+ *   vote (2): artifact: uuid, category: ref, voter: uuid, level: byte, role count: varint, ref * role count,
+ *             time: zigzag varlong (epoch milliseconds)
+ *   vote disabled (3): artifact: uuid, category: ref, disabled: byte (0 for unset, 1 for false, 2 for true)
+ *   vote stats (4): artifact: uuid, category: ref, role: ref, count length: varint, zigzag varint * count length
+ *
+ * uuid: long (most significant bits), long (least significant bits)
+ * string: varint (length in bytes), utf-8 bytes
+ * ref: varint (index in the dictionary), followed by a string if the index equals the dictionary size
+ *
+ * Each message has its own dictionary. Messages of unknown versions are rejected, and snbt messages are still
+ * accepted, so that servers of different versions could share the same channel while updating.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public final class AnnouncementCodec {
+    private static final int MAGIC = 0xFE;
+    private static final int VERSION = 1;
+
+    private static final int TYPE_ARTIFACT = 0;
+    private static final int TYPE_COMMENTS = 1;
+    private static final int TYPE_VOTE = 2;
+    private static final int TYPE_VOTE_DISABLED = 3;
+    private static final int TYPE_VOTE_STATS = 4;
+
+    public static boolean isEncoded(byte[] message) {
+        return message.length > 0 && (message[0] & 0xFF) == MAGIC;
+    }
+
+    public static byte[] encode(Collection<? extends Announcement> announcements) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(buffer);
+            Object2IntMap<ResourceLocation> dictionary = Util.make(new Object2IntOpenHashMap<>(), m -> m.defaultReturnValue(-1));
+            output.writeByte(MAGIC);
+            output.writeByte(VERSION);
+            writeVarInt(output, announcements.size());
+            for (Announcement announcement : announcements) {
+                if (announcement instanceof Artifact artifact) {
+                    output.writeByte(TYPE_ARTIFACT);
+                    writeUUID(output, artifact.key().artifactID());
+                    writeString(output, artifact.name());
+                    output.writeBoolean(artifact.alias().isPresent());
+                    if (artifact.alias().isPresent()) {
+                        writeString(output, artifact.alias().get());
+                    }
+                    continue;
+                }
+                if (announcement instanceof Comments comments) {
+                    output.writeByte(TYPE_COMMENTS);
+                    writeUUID(output, comments.key().artifactID());
+                    writeUUID(output, comments.key().voterID());
+                    writeVarInt(output, comments.comments().size());
+                    for (String comment : comments.comments()) {
+                        writeString(output, comment);
+                    }
+                    continue;
+                }
+                if (announcement instanceof Vote vote) {
+                    output.writeByte(TYPE_VOTE);
+                    writeUUID(output, vote.key().artifactID());
+                    writeRef(output, dictionary, vote.key().categoryID());
+                    writeUUID(output, vote.key().voterID());
+                    output.writeByte(vote.level());
+                    writeVarInt(output, vote.roles().size());
+                    for (ResourceLocation role : vote.roles()) {
+                        writeRef(output, dictionary, role);
+                    }
+                    writeVarLong(output, encodeZigZag(vote.time().toEpochMilli()));
+                    continue;
+                }
+                if (announcement instanceof VoteDisabled voteDisabled) {
+                    output.writeByte(TYPE_VOTE_DISABLED);
+                    writeUUID(output, voteDisabled.key().artifactID());
+                    writeRef(output, dictionary, voteDisabled.key().categoryID());
+                    output.writeByte(voteDisabled.disabled().map(disabled -> disabled ? 2 : 1).orElse(0));
+                    continue;
+                }
+                if (announcement instanceof VoteStats voteStats) {
+                    output.writeByte(TYPE_VOTE_STATS);
+                    writeUUID(output, voteStats.key().artifactID());
+                    writeRef(output, dictionary, voteStats.key().categoryID());
+                    writeRef(output, dictionary, voteStats.key().roleID());
+                    // noinspection UnstableApiUsage
+                    ImmutableIntArray counts = voteStats.counts();
+                    // noinspection UnstableApiUsage
+                    int length = counts.length();
+                    writeVarInt(output, length);
+                    for (int i = 0; i < length; ++i) {
+                        // noinspection UnstableApiUsage
+                        writeVarLong(output, encodeZigZag(counts.get(i)));
+                    }
+                    continue;
+                }
+                throw new IllegalArgumentException("unsupported announcement type: " + announcement.getClass());
+            }
+            output.flush();
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static int decode(byte[] message, Consumer<? super Announcement> consumer) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(message));
+        List<ResourceLocation> dictionary = new ArrayList<>();
+        if (input.readUnsignedByte() != MAGIC) {
+            throw new IOException("not an encoded message");
+        }
+        int version = input.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("unsupported version: " + version);
+        }
+        int count = readVarInt(input);
+        for (int i = 0; i < count; ++i) {
+            int type = input.readUnsignedByte();
+            switch (type) {
+                case TYPE_ARTIFACT -> {
+                    ArtifactKey key = new ArtifactKey(readUUID(input));
+                    String name = readString(input);
+                    Optional<String> alias = input.readBoolean() ? Optional.of(readString(input)) : Optional.empty();
+                    consumer.accept(new Artifact(key, name, alias));
+                }
+                case TYPE_COMMENTS -> {
+                    CommentsKey key = new CommentsKey(readUUID(input), readUUID(input));
+                    int commentCount = readVarInt(input);
+                    ImmutableList.Builder<String> comments = ImmutableList.builder();
+                    for (int j = 0; j < commentCount; ++j) {
+                        comments.add(readString(input));
+                    }
+                    consumer.accept(new Comments(key, comments.build()));
+                }
+                case TYPE_VOTE -> {
+                    UUID artifactID = readUUID(input);
+                    ResourceLocation categoryID = readRef(input, dictionary);
+                    VoteKey key = new VoteKey(artifactID, categoryID, readUUID(input));
+                    int level = input.readUnsignedByte();
+                    int roleCount = readVarInt(input);
+                    ImmutableSet.Builder<ResourceLocation> roles = ImmutableSet.builder();
+                    for (int j = 0; j < roleCount; ++j) {
+                        roles.add(readRef(input, dictionary));
+                    }
+                    Instant time = Instant.ofEpochMilli(decodeZigZag(readVarLong(input)));
+                    consumer.accept(new Vote(key, level, roles.build(), time));
+                }
+                case TYPE_VOTE_DISABLED -> {
+                    VoteDisabledKey key = new VoteDisabledKey(readUUID(input), readRef(input, dictionary));
+                    Optional<Boolean> disabled = switch (input.readUnsignedByte()) {
+                        case 0 -> Optional.empty();
+                        case 1 -> Optional.of(Boolean.FALSE);
+                        case 2 -> Optional.of(Boolean.TRUE);
+                        default -> throw new IOException("invalid disabled state");
+                    };
+                    consumer.accept(new VoteDisabled(key, disabled));
+                }
+                case TYPE_VOTE_STATS -> {
+                    UUID artifactID = readUUID(input);
+                    ResourceLocation categoryID = readRef(input, dictionary);
+                    VoteStatsKey key = new VoteStatsKey(artifactID, categoryID, readRef(input, dictionary));
+                    int[] counts = new int[readVarInt(input)];
+                    for (int j = 0; j < counts.length; ++j) {
+                        long value = decodeZigZag(readVarLong(input));
+                        if (value != (int) value) {
+                            throw new IOException("count too big");
+                        }
+                        counts[j] = (int) value;
+                    }
+                    // noinspection UnstableApiUsage
+                    consumer.accept(new VoteStats(key, ImmutableIntArray.copyOf(counts)));
+                }
+                default -> throw new IOException("unsupported announcement type: " + type);
+            }
+        }
+        return count;
+    }
+
+    private static void writeUUID(DataOutput output, UUID uuid) throws IOException {
+        output.writeLong(uuid.getMostSignificantBits());
+        output.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUUID(DataInput input) throws IOException {
+        return new UUID(input.readLong(), input.readLong());
+    }
+
+    private static void writeString(DataOutput output, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(output, bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInput input) throws IOException {
+        byte[] bytes = new byte[readVarInt(input)];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeRef(DataOutput output, Object2IntMap<ResourceLocation> dictionary, ResourceLocation location) throws IOException {
+        int index = dictionary.getInt(location);
+        if (index < 0) {
+            index = dictionary.size();
+            dictionary.put(location, index);
+            writeVarInt(output, index);
+            writeString(output, location.toString());
+        } else {
+            writeVarInt(output, index);
+        }
+    }
+
+    private static ResourceLocation readRef(DataInput input, List<ResourceLocation> dictionary) throws IOException {
+        int index = readVarInt(input);
+        if (index == dictionary.size()) {
+            String string = readString(input);
+            @Nullable ResourceLocation location = ResourceLocation.tryParse(string);
+            if (location == null) {
+                throw new IOException("invalid resource location: " + string);
+            }
+            dictionary.add(location);
+        } else if (index < 0 || index > dictionary.size()) {
+            throw new IOException("invalid dictionary index: " + index);
+        }
+        return dictionary.get(index);
+    }
+
+    private static long encodeZigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long decodeZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt(DataOutput output, int value) throws IOException {
+        writeVarLong(output, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarLong(DataOutput output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static int readVarInt(DataInput input) throws IOException {
+        long value = readVarLong(input);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("varint too big");
+        }
+        return (int) value;
+    }
+
+    private static long readVarLong(DataInput input) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varlong too big");
+    }
+
+    private AnnouncementCodec() {
+        throw new IllegalStateException();
+    }
+}
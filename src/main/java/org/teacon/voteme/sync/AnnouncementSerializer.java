@@ -13,7 +13,9 @@ import org.teacon.voteme.vote.VoteList;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableSet.toImmutableSet;
@@ -29,6 +31,7 @@ public final class AnnouncementSerializer {
     public static final String VOTE_STATS = "voteme:vote_stats"; // voteme:vote_stats:<artifact-id>:<category-id>:<role-id>
 
     private static final String KEY_ANNOUNCEMENT = "Announcement";
+    private static final String KEY_ANNOUNCEMENTS = "Announcements";
     private static final String KEY_ALIAS = "Alias";
     private static final String KEY_ARTIFACT_NAME = "ArtifactName";
     private static final String KEY_ARTIFACT = "ArtifactUUID";
@@ -136,6 +139,26 @@ public final class AnnouncementSerializer {
         }
     }
 
+    public static CompoundTag serializeBatch(Collection<? extends Announcement> announcements) {
+        ListTag list = new ListTag();
+        for (Announcement announcement : announcements) {
+            serialize(announcement).ifPresent(list::add);
+        }
+        return Util.make(new CompoundTag(), nbt -> nbt.put(KEY_ANNOUNCEMENTS, list));
+    }
+
+    public static void deserializeBatch(CompoundTag nbt, Consumer<? super Announcement> consumer) {
+        // a single announcement is also accepted, which is what old versions publish
+        if (nbt.contains(KEY_ANNOUNCEMENTS, Tag.TAG_LIST)) {
+            ListTag list = nbt.getList(KEY_ANNOUNCEMENTS, Tag.TAG_COMPOUND);
+            for (int i = 0, size = list.size(); i < size; ++i) {
+                deserialize(list.getCompound(i)).ifPresent(consumer);
+            }
+        } else {
+            deserialize(nbt).ifPresent(consumer);
+        }
+    }
+
     private AnnouncementSerializer() {
         throw new IllegalStateException();
     }
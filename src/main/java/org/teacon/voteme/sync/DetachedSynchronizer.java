@@ -1,6 +1,7 @@
 package org.teacon.voteme.sync;
 
 import com.google.common.base.Preconditions;
+import com.google.common.primitives.ImmutableIntArray;
 import net.minecraft.MethodsReturnNonnullByDefault;
 import net.minecraft.Util;
 import net.minecraft.server.MinecraftServer;
@@ -8,12 +9,16 @@ import org.teacon.voteme.VoteMe;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.util.*;
+import java.util.function.Consumer;
 
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public final class DetachedSynchronizer implements VoteSynchronizer {
     private final MinecraftServer server;
     private final Map<VoteKey, Vote> votes = new HashMap<>();
+    // noinspection UnstableApiUsage
+    private final Map<VoteStatsKey, ImmutableIntArray> stats = new HashMap<>();
+    private final StatsAccumulator accumulator = new StatsAccumulator();
     private List<Announcement> queued = new ArrayList<>();
 
     public DetachedSynchronizer(MinecraftServer server) {
@@ -34,7 +39,8 @@ public final class DetachedSynchronizer implements VoteSynchronizer {
                 continue;
             }
             if (announcement instanceof Vote vote) {
-                StatsAccumulator accumulator = new StatsAccumulator();
+                StatsAccumulator accumulator = this.accumulator;
+                accumulator.clear();
                 if (this.votes.containsKey(vote.key())) {
                     accumulator.subtract(this.votes.get(vote.key()));
                 }
@@ -44,8 +50,9 @@ public final class DetachedSynchronizer implements VoteSynchronizer {
                     this.votes.put(affectedVote.key(), affectedVote);
                     this.queued.add(affectedVote);
                 });
-                Util.make(new HashMap<>(), accumulator::buildStatsMap).forEach((key, counts) -> {
-                    VoteStats affectedStats = new VoteStats(key, counts);
+                Util.make(new HashMap<VoteStatsKey, ImmutableIntArray>(), accumulator::buildStatsMap).forEach((key, diff) -> {
+                    // stats announcements carry totals rather than differences
+                    VoteStats affectedStats = new VoteStats(key, this.stats.merge(key, diff, DetachedSynchronizer::sum));
                     this.queued.add(affectedStats);
                 });
                 continue;
@@ -58,16 +65,29 @@ public final class DetachedSynchronizer implements VoteSynchronizer {
         }
     }
 
+    // noinspection UnstableApiUsage
+    private static ImmutableIntArray sum(ImmutableIntArray a, ImmutableIntArray b) {
+        // noinspection UnstableApiUsage
+        int[] counts = a.toArray();
+        for (int i = 0; i < counts.length; ++i) {
+            // noinspection UnstableApiUsage
+            counts[i] += b.get(i);
+        }
+        // noinspection UnstableApiUsage
+        return ImmutableIntArray.copyOf(counts);
+    }
+
     @Override
-    public Collection<? extends Announcement> dequeue() {
+    public int dequeue(Consumer<? super Announcement> consumer) {
         Preconditions.checkArgument(this.server.isSameThread(), "server thread");
         if (this.queued.size() > 0) {
             VoteMe.LOGGER.info("Retrieving {} announcement locally.", this.queued.size());
-            Collection<? extends Announcement> result = this.queued;
+            List<Announcement> result = this.queued;
             this.queued = new ArrayList<>();
-            return result;
+            result.forEach(consumer);
+            return result.size();
         }
-        return new ArrayList<>();
+        return 0;
     }
 
     @Override
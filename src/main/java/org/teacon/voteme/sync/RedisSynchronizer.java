@@ -6,10 +6,19 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.primitives.ImmutableIntArray;
 import com.mojang.brigadier.exceptions.CommandSyntaxException;
 import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisCommandExecutionException;
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.RedisURI;
 import io.lettuce.core.ScanArgs;
 import io.lettuce.core.ScanCursor;
+import io.lettuce.core.ScriptOutputType;
 import io.lettuce.core.api.StatefulRedisConnection;
 import io.lettuce.core.api.async.RedisAsyncCommands;
+import io.lettuce.core.codec.ByteArrayCodec;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.output.IntegerOutput;
+import io.lettuce.core.protocol.CommandArgs;
+import io.lettuce.core.protocol.CommandType;
 import io.lettuce.core.pubsub.RedisPubSubAdapter;
 import io.lettuce.core.pubsub.StatefulRedisPubSubConnection;
 import net.minecraft.MethodsReturnNonnullByDefault;
@@ -20,14 +29,18 @@ import net.minecraft.server.MinecraftServer;
 import org.teacon.voteme.VoteMe;
 import org.teacon.voteme.vote.VoteArtifactNames;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -39,121 +52,167 @@ import static org.teacon.voteme.sync.AnnouncementSerializer.*;
 @ParametersAreNonnullByDefault
 public final class RedisSynchronizer implements VoteSynchronizer {
     private static final int BATCH_MAXIMUM = 1000;
+    private static final int LOADING_BATCH_MAXIMUM = 10000;
+    private static final long LOADING_NANOS_PER_TICK = 5_000_000L;
+    private static final long RETRY_MIN_NANOS = 500_000_000L;
+    private static final long RETRY_MAX_NANOS = 30_000_000_000L;
     private static final String SYNC = "voteme:sync";
+    private static final byte[] SYNC_BYTES = SYNC.getBytes(StandardCharsets.UTF_8);
 
-    private List<Announcement> receivedAnnouncements = new ArrayList<>();
+    private List<Announcement> outgoingAnnouncements = new ArrayList<>();
     private boolean hasBeenScanned = false;
+    private volatile boolean loadingCompleted = false;
+    private boolean voteScriptLoading = false;
+    private long voteRetryDelayNanos = 0L;
+    private long voteRetryNanos = 0L;
+    private String voteScriptDigest;
 
-    private final StatefulRedisPubSubConnection<String, String> connectionPubSub;
+    private final StatefulRedisPubSubConnection<byte[], byte[]> connectionPubSub;
+    private final StatefulRedisConnection<String, String> connectionPipelined;
     private final StatefulRedisConnection<String, String> connection;
     private final MinecraftServer server;
     private final RedisClient client;
+    private final RedisURI redisURI;
 
     private final Deque<Vote> queuedVotes = new ArrayDeque<>();
+    private final Queue<Announcement> loadedAnnouncements = new ConcurrentLinkedQueue<>();
+    private final Queue<Announcement> receivedAnnouncements = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger loadedCount = new AtomicInteger();
 
     public RedisSynchronizer(MinecraftServer server, String uri) {
         this.server = server;
-        this.server.addTickable(this::tickVoteUpdates);
+        this.server.addTickable(this::tick);
 
-        this.client = RedisClient.create(uri);
+        this.redisURI = RedisURI.create(uri);
+        this.client = RedisClient.create(this.redisURI);
 
-        this.connectionPubSub = this.client.connectPubSub();
+        this.connectionPubSub = this.client.connectPubSub(ByteArrayCodec.INSTANCE);
         this.connectionPubSub.addListener(new PubSubListener());
-        this.connectionPubSub.sync().subscribe(SYNC);
+        this.connectionPubSub.sync().subscribe(SYNC_BYTES);
 
         this.connection = this.client.connect();
+        this.voteScriptDigest = this.connection.sync().scriptLoad(RedisVoteScript.SOURCE);
+
+        // commands are buffered in a tick and flushed together at the end of it
+        this.connectionPipelined = this.client.connect();
+        this.connectionPipelined.setAutoFlushCommands(false);
+    }
+
+    private void tick() {
+        this.tickVoteUpdates();
+        this.flushOutgoing();
+    }
+
+    private void flushOutgoing() {
+        checkArgument(this.server.isSameThread(), "server thread");
+        if (this.outgoingAnnouncements.size() > 0) {
+            RedisAsyncCommands<String, String> async = this.connectionPipelined.async();
+            List<Announcement> announcements = this.outgoingAnnouncements;
+            this.outgoingAnnouncements = new ArrayList<>();
+            // commands are handled in order, so announcements are published after their data are written
+            boolean binary = VoteMe.CONFIG.REDIS_BINARY_SYNC.get();
+            boolean batched = VoteMe.CONFIG.REDIS_BATCH_SYNC.get();
+            if (binary || batched) {
+                for (int i = 0, size = announcements.size(); i < size; i += BATCH_MAXIMUM) {
+                    List<Announcement> batch = announcements.subList(i, Math.min(size, i + BATCH_MAXIMUM));
+                    if (binary) {
+                        // binary messages are sent through the same connection, which keeps them in order
+                        CommandArgs<String, String> args = new CommandArgs<>(StringCodec.UTF8).addKey(SYNC);
+                        async.dispatch(CommandType.PUBLISH, new IntegerOutput<>(StringCodec.UTF8), args.add(AnnouncementCodec.encode(batch)));
+                    } else {
+                        async.publish(SYNC, serializeBatch(batch).toString());
+                    }
+                }
+            } else {
+                // old versions only accept a single announcement in each message
+                for (Announcement announcement : announcements) {
+                    serialize(announcement).ifPresent(nbt -> async.publish(SYNC, nbt.toString()));
+                }
+            }
+            VoteMe.LOGGER.info("Publishing {} announcement(s) to redis.", announcements.size());
+        }
+        this.connectionPipelined.flushCommands();
     }
 
     private void tickVoteUpdates() {
         checkArgument(this.server.isSameThread(), "server thread");
-        StatsAccumulator accumulator = new StatsAccumulator();
+        if (this.voteRetryDelayNanos > 0L && System.nanoTime() - this.voteRetryNanos < 0L) {
+            return; // redis is unavailable, wait until the next retry
+        }
         for (int i = 0; i < BATCH_MAXIMUM; ++i) {
             Vote vote = this.queuedVotes.poll();
             if (vote == null) {
                 break; // the queue is empty
             }
-            accumulator.accumulate(vote);
+            this.applyVote(vote, Set.of());
         }
-        List<Vote> watchedVotes = new ArrayList<>();
-        accumulator.buildAffectedVotes(watchedVotes);
-        if (watchedVotes.size() > 0) {
-            String[] watchedKeys = watchedVotes.stream().map(v -> toRedisKey(v.key())).toArray(String[]::new);
-            VoteMe.LOGGER.info("Watch {} key(s) for updating vote related data in redis.", watchedKeys.length);
-            List<Vote> affectedVotes = new ArrayList<>();
-            // noinspection UnstableApiUsage
-            Map<VoteStatsKey, ImmutableIntArray> affectedStatsMap = new HashMap<>();
-            RedisAsyncCommands<String, String> async = this.connection.async();
-            AtomicBoolean succeed = new AtomicBoolean();
-            async.watch(watchedKeys)
-                    .thenComposeAsync(ok -> {
-                        List<CompletableFuture<?>> futures = new ArrayList<>(watchedVotes.size());
-                        // get original votes in redis server
-                        for (Vote vote : watchedVotes) {
-                            CompletableFuture<Vote> future = dispatch(vote.key(), async);
-                            futures.add(future.thenAcceptAsync(accumulator::subtract, this.server));
-                        }
-                        return allOf(futures.toArray(new CompletableFuture[0]));
-                    }, this.server)
-                    .thenRunAsync(() -> {
-                        // calculate affected votes and stats map
-                        accumulator.buildAffectedVotes(affectedVotes);
-                        accumulator.buildStatsMap(affectedStatsMap);
-                    }, this.server)
-                    .thenComposeAsync(v -> {
-                        int capacity = 2 + 2 * affectedVotes.size() + 6 * affectedStatsMap.size();
-                        List<CompletableFuture<?>> futures = new ArrayList<>(capacity);
-                        futures.add(async.multi().toCompletableFuture());
-                        // submit affected votes to redis server
-                        for (Vote vote : watchedVotes) {
-                            String key = toRedisKey(vote.key());
-                            ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
-                            builder.put("level", Integer.toString(vote.level()));
-                            Iterator<ResourceLocation> roleIterator = vote.roles().iterator();
-                            for (int i = 0; roleIterator.hasNext(); ++i) {
-                                builder.put("role:" + i, roleIterator.next().toString());
-                            }
-                            builder.put("time", vote.time().truncatedTo(ChronoUnit.MILLIS).toString());
-                            futures.add(async.del(key).toCompletableFuture());
-                            futures.add(async.hset(key, builder.build()).toCompletableFuture());
-                        }
-                        // submit affected stats
-                        // noinspection UnstableApiUsage
-                        for (Map.Entry<VoteStatsKey, ImmutableIntArray> entry : affectedStatsMap.entrySet()) {
-                            String key = toRedisKey(entry.getKey());
-                            // noinspection UnstableApiUsage
-                            ImmutableIntArray counts = entry.getValue();
-                            // noinspection UnstableApiUsage
-                            int bound = counts.length();
-                            for (int i = 0; i < bound; ++i) {
-                                // noinspection UnstableApiUsage
-                                futures.add(async.hincrby(key, "level:" + i, counts.get(i)).toCompletableFuture());
-                            }
-                        }
-                        futures.add(async.exec().thenAccept(r -> succeed.set(!r.wasDiscarded())).toCompletableFuture());
-                        return allOf(futures.toArray(new CompletableFuture[0]));
-                    }, this.server)
-                    .thenRunAsync(() -> {
-                        if (succeed.getAcquire()) {
-                            // the transaction succeeded, broadcast vote changes and stat changes
-                            for (Vote affectedVote : affectedVotes) {
-                                async.publish(SYNC, serialize(affectedVote).orElseThrow().toString());
-                            }
-                            // noinspection UnstableApiUsage
-                            for (Map.Entry<VoteStatsKey, ImmutableIntArray> entry : affectedStatsMap.entrySet()) {
-                                VoteStats voteStats = new VoteStats(entry.getKey(), entry.getValue());
-                                async.publish(SYNC, serialize(voteStats).orElseThrow().toString());
-                            }
-                        } else {
-                            // the transaction failed because the watched keys changed, try again in the next tick
-                            for (int i = watchedVotes.size() - 1; i >= 0; --i) {
-                                this.queuedVotes.offerFirst(watchedVotes.get(i));
-                            }
+    }
+
+    private void applyVote(Vote vote, Set<ResourceLocation> extraRoles) {
+        RedisAsyncCommands<String, String> async = this.connectionPipelined.async();
+        String[] keys = RedisVoteScript.keys(vote, extraRoles), args = RedisVoteScript.args(vote);
+        async.<List<Object>>evalsha(this.voteScriptDigest, ScriptOutputType.MULTI, keys, args)
+                .whenCompleteAsync((result, e) -> this.handleVoteResult(vote, extraRoles, result, e), this.server);
+    }
+
+    private void handleVoteResult(Vote vote, Set<ResourceLocation> extraRoles, @Nullable List<Object> result, @Nullable Throwable e) {
+        if (e != null) {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof RedisCommandExecutionException && !(cause instanceof RedisNoScriptException)) {
+                // errors raised by the script would be raised again, so the vote is dropped instead of retried
+                VoteMe.LOGGER.error("Failed to apply vote " + vote.key() + " to redis, the vote is dropped", cause);
+                return;
+            }
+            // votes are applied again later, which is not an issue since outdated votes are ignored
+            this.queuedVotes.offerFirst(vote);
+            if (cause instanceof RedisNoScriptException) {
+                // scripts have been flushed in redis server, load it again
+                if (!this.voteScriptLoading) {
+                    this.voteScriptLoading = true;
+                    this.connectionPipelined.async().scriptLoad(RedisVoteScript.SOURCE).whenCompleteAsync((digest, ex) -> {
+                        this.voteScriptLoading = false;
+                        if (digest != null) {
+                            this.voteScriptDigest = digest;
                         }
                     }, this.server);
+                }
+                return;
+            }
+            // votes in the same batch fail together, so the delay is only extended once for each retry
+            long nanos = System.nanoTime();
+            if (this.voteRetryDelayNanos == 0L) {
+                VoteMe.LOGGER.warn("Failed to apply votes to redis, retrying until it is available again", cause);
+                this.voteRetryDelayNanos = RETRY_MIN_NANOS;
+                this.voteRetryNanos = nanos + this.voteRetryDelayNanos;
+            } else if (nanos - this.voteRetryNanos >= 0L) {
+                this.voteRetryDelayNanos = Math.min(RETRY_MAX_NANOS, this.voteRetryDelayNanos * 2L);
+                this.voteRetryNanos = nanos + this.voteRetryDelayNanos;
+            }
+            return;
+        }
+        if (this.voteRetryDelayNanos > 0L) {
+            VoteMe.LOGGER.info("Redis is available again, applying {} queued vote(s).", this.queuedVotes.size());
+            this.voteRetryDelayNanos = 0L;
+        }
+        RedisVoteScript.Result parsed;
+        try {
+            parsed = RedisVoteScript.parse(checkNotNull(result));
+        } catch (RuntimeException ex) {
+            VoteMe.LOGGER.warn("Failed to parse the result of applying vote " + vote.key() + " to redis", ex);
+            return;
+        }
+        if (parsed instanceof RedisVoteScript.MissingRoles missingRoles) {
+            // the existing vote has roles whose stats keys were not declared, so it is applied with them again
+            this.applyVote(vote, ImmutableSet.<ResourceLocation>builder().addAll(extraRoles).addAll(missingRoles.roles()).build());
+            return;
+        }
+        if (parsed instanceof RedisVoteScript.Applied applied) {
+            this.outgoingAnnouncements.add(vote);
+            this.outgoingAnnouncements.addAll(applied.stats());
         }
     }
 
-    private static String toRedisKey(AnnounceKey<?> announceKey) {
+    static String toRedisKey(AnnounceKey<?> announceKey) {
         if (announceKey instanceof ArtifactKey key) {
             return ARTIFACT + ":" + key.artifactID();
         }
@@ -172,7 +231,7 @@ public final class RedisSynchronizer implements VoteSynchronizer {
         throw new IllegalArgumentException("unsupported announce key");
     }
 
-    private static AnnounceKey<?> fromRedisKey(String redisKey) {
+    static AnnounceKey<?> fromRedisKey(String redisKey) {
         String[] redisKeyParts = redisKey.split(":", 3);
         checkArgument(redisKeyParts.length == 3, "redis key needs at least two colons");
         String announceKey = redisKeyParts[0] + ":" + redisKeyParts[1];
@@ -282,37 +341,37 @@ public final class RedisSynchronizer implements VoteSynchronizer {
     @Override
     public void publish(Collection<? extends Announcement> announcements) {
         checkArgument(this.server.isSameThread(), "server thread");
-        RedisAsyncCommands<String, String> async = this.connection.async();
-        VoteMe.LOGGER.info("Publishing {} announcement(s) to redis.", announcements.size());
+        // commands are only buffered here, which are flushed with announcements at the end of the tick
+        RedisAsyncCommands<String, String> async = this.connectionPipelined.async();
         for (Announcement announcement : announcements) {
             if (announcement instanceof Artifact artifact) {
+                String key = toRedisKey(artifact.key());
                 if (artifact.name().isEmpty()) {
-                    async.del(toRedisKey(artifact.key()))
-                            .thenComposeAsync(res -> async.publish(SYNC, serialize(artifact).orElseThrow().toString()));
+                    warnOnFailure(async.del(key), key);
                 } else {
                     ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
                     builder.put("name", artifact.name());
                     artifact.alias().ifPresent(alias -> builder.put("alias", alias));
-                    String key = toRedisKey(artifact.key());
-                    allOf(Stream
-                            .of(async.multi(), async.del(key), async.hset(key, builder.build()), async.exec())
-                            .map(CompletionStage::toCompletableFuture).toArray(CompletableFuture[]::new))
-                            .thenComposeAsync(res -> async.publish(SYNC, serialize(artifact).orElseThrow().toString()));
+                    async.multi();
+                    async.del(key);
+                    async.hset(key, builder.build());
+                    warnOnFailure(async.exec(), key);
                 }
+                this.outgoingAnnouncements.add(artifact);
                 continue;
             }
             if (announcement instanceof Comments comments) {
+                String key = toRedisKey(comments.key());
                 if (comments.comments().isEmpty()) {
-                    async.del(toRedisKey(comments.key()))
-                            .thenComposeAsync(res -> async.publish(SYNC, serialize(comments).orElseThrow().toString()));
+                    warnOnFailure(async.del(key), key);
                 } else {
-                    String key = toRedisKey(comments.key());
                     String[] list = comments.comments().toArray(new String[0]);
-                    allOf(Stream
-                            .of(async.multi(), async.del(key), async.lpush(key, list), async.exec())
-                            .map(CompletionStage::toCompletableFuture).toArray(CompletableFuture[]::new))
-                            .thenComposeAsync(res -> async.publish(SYNC, serialize(comments).orElseThrow().toString()));
+                    async.multi();
+                    async.del(key);
+                    async.lpush(key, list);
+                    warnOnFailure(async.exec(), key);
                 }
+                this.outgoingAnnouncements.add(comments);
                 continue;
             }
             if (announcement instanceof Vote vote) {
@@ -320,77 +379,180 @@ public final class RedisSynchronizer implements VoteSynchronizer {
                 continue;
             }
             if (announcement instanceof VoteDisabled disabled) {
+                String key = toRedisKey(disabled.key());
                 if (disabled.disabled().isEmpty()) {
-                    async.del(toRedisKey(disabled.key()))
-                            .thenComposeAsync(res -> async.publish(SYNC, serialize(disabled).orElseThrow().toString()));
+                    warnOnFailure(async.del(key), key);
                 } else {
-                    String key = toRedisKey(disabled.key());
-                    async.set(key, Boolean.toString(disabled.disabled().get()))
-                            .thenComposeAsync(res -> async.publish(SYNC, serialize(disabled).orElseThrow().toString()));
+                    warnOnFailure(async.set(key, Boolean.toString(disabled.disabled().get())), key);
                 }
+                this.outgoingAnnouncements.add(disabled);
                 continue;
             }
             throw new IllegalArgumentException("unsupported outbound announcement: " + announcement.key());
         }
     }
 
-    private void scan(ScanCursor cursor, ScanArgs args) {
+    private static void warnOnFailure(CompletionStage<?> stage, String key) {
+        stage.whenComplete((result, e) -> {
+            if (e != null) {
+                VoteMe.LOGGER.warn("Failed to write " + key + " to redis", e);
+            }
+        });
+    }
+
+    private void load() {
         checkArgument(this.server.isSameThread(), "server thread");
-        RedisAsyncCommands<String, String> async = this.connection.async();
-        async.scan(cursor, args).thenAcceptAsync(newCursor -> {
-            for (String key : newCursor.getKeys()) {
-                dispatch(fromRedisKey(key), async).thenAcceptAsync(e -> this.receivedAnnouncements.add(e), this.server);
+        // the connection is opened in lettuce threads so that the server thread never waits for it
+        this.client.connectAsync(StringCodec.UTF8, this.redisURI).whenComplete((connectionLoading, e) -> {
+            if (e != null) {
+                VoteMe.LOGGER.error("Failed to connect to redis, the data will not be loaded", e);
+                this.loadingCompleted = true;
+                return;
+            }
+            this.scanAll(connectionLoading);
+        });
+    }
+
+    private void scanAll(StatefulRedisConnection<String, String> connectionLoading) {
+        // values of a whole scanned page are fetched in one flush, and responses are handled in lettuce threads
+        connectionLoading.setAutoFlushCommands(false);
+        RedisAsyncCommands<String, String> async = connectionLoading.async();
+        AtomicInteger outstanding = new AtomicInteger(5);
+        long startNanos = System.nanoTime();
+        Runnable onCompleted = () -> {
+            if (outstanding.decrementAndGet() == 0) {
+                long millis = (System.nanoTime() - startNanos) / 1_000_000L;
+                VoteMe.LOGGER.info("Loaded {} announcement(s) from redis in {} milliseconds.", this.loadedCount.get(), millis);
+                this.loadingCompleted = true;
+                connectionLoading.closeAsync();
+            }
+        };
+        for (String prefix : List.of(ARTIFACT, COMMENTS, VOTE, VOTE_DISABLED, VOTE_STATS)) {
+            ScanArgs args = new ScanArgs().match(prefix + ":*").limit(LOADING_BATCH_MAXIMUM);
+            this.scan(ScanCursor.of("0"), args, async, connectionLoading::flushCommands, outstanding, onCompleted);
+        }
+        connectionLoading.flushCommands();
+    }
+
+    private void scan(ScanCursor cursor, ScanArgs args, RedisAsyncCommands<String, String> async,
+                      Runnable flush, AtomicInteger outstanding, Runnable onCompleted) {
+        async.scan(cursor, args).whenComplete((newCursor, e) -> {
+            if (e != null) {
+                VoteMe.LOGGER.error("Failed to scan keys from redis, some of the data will not be loaded", e);
+                onCompleted.run();
+                return;
             }
+            List<String> keys = newCursor.getKeys();
+            List<CompletableFuture<?>> futures = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                AnnounceKey<?> announceKey;
+                try {
+                    announceKey = fromRedisKey(key);
+                } catch (IllegalArgumentException ex) {
+                    VoteMe.LOGGER.warn("Failed to parse " + key + " as an announce key from redis", ex);
+                    continue;
+                }
+                futures.add(dispatch(announceKey, async).whenComplete((announcement, ex) -> {
+                    if (ex != null) {
+                        VoteMe.LOGGER.warn("Failed to load " + key + " from redis", ex);
+                    } else {
+                        this.loadedAnnouncements.offer(announcement);
+                    }
+                }));
+            }
+            // counted before the current scan is completed, so that it never reaches zero too early
+            outstanding.incrementAndGet();
             if (!newCursor.isFinished()) {
-                this.scan(newCursor, args);
+                outstanding.incrementAndGet();
+                this.scan(newCursor, args, async, flush, outstanding, onCompleted);
             }
-        }, this.server);
+            flush.run();
+            allOf(futures.toArray(new CompletableFuture[0])).whenComplete((v, ex) -> {
+                int count = this.loadedCount.addAndGet(keys.size());
+                VoteMe.LOGGER.info("Loaded {} announcement(s) from redis so far.", count);
+                onCompleted.run();
+            });
+            onCompleted.run();
+        });
     }
 
     @Override
-    public Collection<? extends Announcement> dequeue() {
+    public int dequeue(Consumer<? super Announcement> consumer) {
         checkArgument(this.server.isSameThread(), "server thread");
         if (!this.hasBeenScanned) {
             this.hasBeenScanned = true;
-            this.scan(ScanCursor.of("0"), new ScanArgs().match(ARTIFACT + ":*").limit(BATCH_MAXIMUM));
-            this.scan(ScanCursor.of("0"), new ScanArgs().match(COMMENTS + ":*").limit(BATCH_MAXIMUM));
-            this.scan(ScanCursor.of("0"), new ScanArgs().match(VOTE + ":*").limit(BATCH_MAXIMUM));
-            this.scan(ScanCursor.of("0"), new ScanArgs().match(VOTE_DISABLED + ":*").limit(BATCH_MAXIMUM));
-            this.scan(ScanCursor.of("0"), new ScanArgs().match(VOTE_STATS + ":*").limit(BATCH_MAXIMUM));
+            this.load();
+        }
+        // read before the queue, since everything has been offered to the queue once loading completes
+        boolean loadingCompleted = this.loadingCompleted;
+        if (!this.loadedAnnouncements.isEmpty()) {
+            // loaded data are delivered until the time budget runs out so that a tick never takes too long
+            int count = 0;
+            long deadline = System.nanoTime() + LOADING_NANOS_PER_TICK;
+            do {
+                Announcement announcement = this.loadedAnnouncements.poll();
+                if (announcement == null) {
+                    break; // the queue is empty
+                }
+                consumer.accept(announcement);
+                ++count;
+            } while (System.nanoTime() < deadline);
+            VoteMe.LOGGER.info("Retrieved {} loaded announcement(s) from redis.", count);
+            return count;
         }
-        if (this.receivedAnnouncements.size() > 0) {
-            VoteMe.LOGGER.info("Retrieving {} announcement(s) from redis.", this.receivedAnnouncements.size());
-            Collection<? extends Announcement> result = this.receivedAnnouncements;
-            this.receivedAnnouncements = new ArrayList<>();
-            return result;
+        if (!loadingCompleted) {
+            // announcements from the channel are kept until loading completes, since they may be newer
+            return 0;
         }
-        return new ArrayList<>();
+        int count = 0;
+        while (true) {
+            Announcement announcement = this.receivedAnnouncements.poll();
+            if (announcement == null) {
+                break; // the queue is empty
+            }
+            consumer.accept(announcement);
+            ++count;
+        }
+        if (count > 0) {
+            VoteMe.LOGGER.info("Retrieved {} announcement(s) from redis.", count);
+        }
+        return count;
     }
 
     @Override
     public void close() {
         checkArgument(this.server.isSameThread(), "server thread");
+        this.flushOutgoing();
         this.connectionPubSub.close();
+        this.connectionPipelined.close();
         this.connection.close();
         this.client.close();
     }
 
     @MethodsReturnNonnullByDefault
     @ParametersAreNonnullByDefault
-    private class PubSubListener extends RedisPubSubAdapter<String, String> {
+    private class PubSubListener extends RedisPubSubAdapter<byte[], byte[]> {
         @Override
-        public void message(String channel, String message) {
-            if (SYNC.equals(channel)) {
-                RedisSynchronizer.this.server.submitAsync(() -> {
+        public void message(byte[] channel, byte[] message) {
+            if (Arrays.equals(SYNC_BYTES, channel)) {
+                // messages are decoded in the lettuce thread, and only decoded announcements go to the server thread
+                if (AnnouncementCodec.isEncoded(message)) {
                     try {
-                        CompoundTag nbt = TagParser.parseTag(message);
-                        deserialize(nbt).ifPresent(e -> RedisSynchronizer.this.receivedAnnouncements.add(e));
-                    } catch (CommandSyntaxException e) {
-                        VoteMe.LOGGER.warn("Failed to parse " + message + " as a tag from redis channel", e);
+                        AnnouncementCodec.decode(message, RedisSynchronizer.this.receivedAnnouncements::offer);
+                    } catch (IOException e) {
+                        VoteMe.LOGGER.warn("Failed to decode a message of " + message.length + " bytes from redis channel", e);
                     }
-                });
+                    return;
+                }
+                String text = new String(message, StandardCharsets.UTF_8);
+                try {
+                    CompoundTag nbt = TagParser.parseTag(text);
+                    deserializeBatch(nbt, RedisSynchronizer.this.receivedAnnouncements::offer);
+                } catch (CommandSyntaxException e) {
+                    VoteMe.LOGGER.warn("Failed to parse " + text + " as a tag from redis channel", e);
+                }
             } else {
-                VoteMe.LOGGER.warn("Unrecognized message from redis channel {}", channel);
+                VoteMe.LOGGER.warn("Unrecognized message from redis channel {}", new String(channel, StandardCharsets.UTF_8));
             }
         }
     }
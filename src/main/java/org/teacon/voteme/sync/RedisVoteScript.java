@@ -0,0 +1,181 @@
+package org.teacon.voteme.sync;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.ImmutableIntArray;
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.resources.ResourceLocation;
+import org.teacon.voteme.sync.VoteSynchronizer.Vote;
+import org.teacon.voteme.sync.VoteSynchronizer.VoteStats;
+import org.teacon.voteme.sync.VoteSynchronizer.VoteStatsKey;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.time.temporal.ChronoUnit;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.teacon.voteme.sync.AnnouncementSerializer.VOTE_STATS;
+
+/*
+ * Applies a vote atomically, and keeps stats of all the roles of the vote in sync with it.
+ *
+ * KEYS[1]: the vote key, KEYS[2..]: stats keys of the roles which may be affected
+ * ARGV[1]: prefix of stats keys, ARGV[2]: level, ARGV[3]: epoch millis, ARGV[4]: time, ARGV[5..]: roles
+ *
+ * Returns an empty array if the vote is not newer than the existing one, minus one followed by roles of the existing
+ * vote if their stats keys are not declared (nothing is written, and it should be applied again with these keys),
+ * otherwise returns one followed by each affected stats key and its six counts after the vote is applied.
+ *
+ * Votes written by old versions do not have the millis field, so the time field is parsed instead.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class RedisVoteScript {
+    static final String SOURCE = """
+            local function toMillis(time)
+                local y, mo, d, h, mi, s, f = string.match(time, '^(%d+)-(%d+)-(%d+)T(%d+):(%d+):(%d+)%.?(%d*)Z$')
+                if not y then
+                    return nil
+                end
+                y, mo, d = tonumber(y), tonumber(mo), tonumber(d)
+                if mo <= 2 then
+                    y = y - 1
+                end
+                local era = math.floor(y / 400)
+                local yoe = y - era * 400
+                local doy = math.floor((153 * ((mo + 9) % 12) + 2) / 5) + d - 1
+                local days = era * 146097 + yoe * 365 + math.floor(yoe / 4) - math.floor(yoe / 100) + doy - 719468
+                local seconds = ((days * 24 + tonumber(h)) * 60 + tonumber(mi)) * 60 + tonumber(s)
+                return seconds * 1000 + tonumber(string.sub(f .. '000', 1, 3))
+            end
+            local old = redis.call('HGETALL', KEYS[1])
+            local fields = {}
+            for i = 1, #old, 2 do
+                fields[old[i]] = old[i + 1]
+            end
+            local millis = tonumber(ARGV[3])
+            local oldMillis = tonumber(fields['millis'] or '') or (fields['time'] and toMillis(fields['time']))
+            if oldMillis and oldMillis >= millis then
+                return {}
+            end
+            local declared = {}
+            for i = 2, #KEYS do
+                declared[KEYS[i]] = true
+            end
+            local affected, diffs, missing = {}, {}, {-1}
+            local function add(role, level, diff)
+                if level > 0 then
+                    local key = ARGV[1] .. role
+                    if not declared[key] then
+                        table.insert(missing, role)
+                        return
+                    end
+                    if not diffs[key] then
+                        diffs[key] = {0, 0, 0, 0, 0, 0}
+                        table.insert(affected, key)
+                    end
+                    diffs[key][1] = diffs[key][1] - diff
+                    diffs[key][level + 1] = diffs[key][level + 1] + diff
+                end
+            end
+            local oldLevel = tonumber(fields['level'] or '0')
+            local i = 0
+            while fields['role:' .. i] do
+                add(fields['role:' .. i], oldLevel, -1)
+                i = i + 1
+            end
+            local vote = {'level', ARGV[2], 'time', ARGV[4], 'millis', ARGV[3]}
+            for j = 5, #ARGV do
+                add(ARGV[j], tonumber(ARGV[2]), 1)
+                table.insert(vote, 'role:' .. (j - 5))
+                table.insert(vote, ARGV[j])
+            end
+            if #missing > 1 then
+                return missing
+            end
+            redis.call('DEL', KEYS[1])
+            redis.call('HSET', KEYS[1], unpack(vote))
+            local result = {1}
+            for _, key in ipairs(affected) do
+                table.insert(result, key)
+                for level = 0, 5 do
+                    table.insert(result, redis.call('HINCRBY', key, 'level:' .. level, diffs[key][level + 1]))
+                end
+            end
+            return result
+            """;
+
+    static String[] keys(Vote vote, Set<ResourceLocation> extraRoles) {
+        // stats keys of roles of the new vote are always declared, and those of the existing one are returned if not
+        Set<ResourceLocation> roles = new LinkedHashSet<>(vote.roles());
+        roles.addAll(extraRoles);
+        String[] keys = new String[1 + roles.size()];
+        keys[0] = RedisSynchronizer.toRedisKey(vote.key());
+        int index = 1;
+        for (ResourceLocation role : roles) {
+            keys[index++] = RedisSynchronizer.toRedisKey(new VoteStatsKey(vote.key().artifactID(), vote.key().categoryID(), role));
+        }
+        return keys;
+    }
+
+    static String[] args(Vote vote) {
+        String[] args = new String[4 + vote.roles().size()];
+        args[0] = VOTE_STATS + ":" + vote.key().artifactID() + ":" + vote.key().categoryID() + ":";
+        args[1] = Integer.toString(vote.level());
+        args[2] = Long.toString(vote.time().toEpochMilli());
+        args[3] = vote.time().truncatedTo(ChronoUnit.MILLIS).toString();
+        int index = 4;
+        for (ResourceLocation role : vote.roles()) {
+            args[index++] = role.toString();
+        }
+        return args;
+    }
+
+    static Result parse(List<Object> output) {
+        if (output.isEmpty()) {
+            return new Outdated();
+        }
+        long status = (Long) output.get(0);
+        if (status < 0) {
+            ImmutableSet.Builder<ResourceLocation> roles = ImmutableSet.builder();
+            for (int i = 1; i < output.size(); ++i) {
+                roles.add(new ResourceLocation((String) output.get(i)));
+            }
+            return new MissingRoles(roles.build());
+        }
+        checkArgument(output.size() % 7 == 1, "invalid output of the vote script");
+        ImmutableList.Builder<VoteStats> stats = ImmutableList.builder();
+        for (int i = 1; i + 6 < output.size(); i += 7) {
+            VoteStatsKey key = (VoteStatsKey) RedisSynchronizer.fromRedisKey((String) output.get(i));
+            int[] counts = new int[6];
+            for (int j = 0; j < 6; ++j) {
+                counts[j] = Math.toIntExact((Long) output.get(i + 1 + j));
+            }
+            // noinspection UnstableApiUsage
+            stats.add(new VoteStats(key, ImmutableIntArray.copyOf(counts)));
+        }
+        return new Applied(stats.build());
+    }
+
+    sealed interface Result permits Applied, Outdated, MissingRoles {
+        // nothing here
+    }
+
+    record Applied(ImmutableList<VoteStats> stats) implements Result {
+        // nothing here
+    }
+
+    record Outdated() implements Result {
+        // nothing here
+    }
+
+    record MissingRoles(ImmutableSet<ResourceLocation> roles) implements Result {
+        // nothing here
+    }
+
+    private RedisVoteScript() {
+        throw new IllegalStateException();
+    }
+}
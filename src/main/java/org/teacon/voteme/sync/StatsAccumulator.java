@@ -1,7 +1,9 @@
 package org.teacon.voteme.sync;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.primitives.ImmutableIntArray;
+import it.unimi.dsi.fastutil.HashCommon;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.resources.ResourceLocation;
@@ -10,36 +12,101 @@ import org.teacon.voteme.sync.VoteSynchronizer.VoteKey;
 import org.teacon.voteme.sync.VoteSynchronizer.VoteStatsKey;
 
 import javax.annotation.Nullable;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
-import java.util.stream.IntStream;
+import java.util.*;
 
+/*
+ * Counts are kept in an open addressing table, keyed by interned artifact, category and role indices:
+ *
+ * key: artifact index + 1 (32 bits), category index (16 bits), role index (16 bits), zero for empty slots
+ * counts: int * (max level + 1) for each slot, inlined in a single array
+ *
+ * Interned indices are kept after clearing, so that nothing is allocated for each vote once warmed up.
+ */
 public final class StatsAccumulator {
     private static final int MAX_LEVEL = 5;
+    private static final int STRIDE = MAX_LEVEL + 1;
+    private static final int INITIAL_CAPACITY = 16;
 
     private final Map<VoteKey, Vote> subtractedVotes = new HashMap<>();
     private final Map<VoteKey, Vote> accumulatedVotes = new HashMap<>();
-    private final List<Object2IntMap<VoteStatsKey>> countMaps = IntStream.range(0, MAX_LEVEL + 1)
-            .<Object2IntMap<VoteStatsKey>>mapToObj(level -> new Object2IntOpenHashMap<>()).toList();
+
+    private final List<UUID> artifacts = new ArrayList<>();
+    private final List<ResourceLocation> categories = new ArrayList<>();
+    private final List<ResourceLocation> roles = new ArrayList<>();
+    private final Object2IntMap<UUID> artifactIndices = newIndices();
+    private final Object2IntMap<ResourceLocation> categoryIndices = newIndices();
+    private final Object2IntMap<ResourceLocation> roleIndices = newIndices();
+
+    private int size = 0;
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private int[] counts = new int[INITIAL_CAPACITY * STRIDE];
+
+    public void clear() {
+        this.subtractedVotes.clear();
+        this.accumulatedVotes.clear();
+        Arrays.fill(this.keys, 0L);
+        Arrays.fill(this.counts, 0);
+        this.size = 0;
+    }
 
     private void increase(@Nullable Vote vote) {
+        this.add(vote, 1);
+    }
+
+    private void decrease(@Nullable Vote vote) {
+        this.add(vote, -1);
+    }
+
+    private void add(@Nullable Vote vote, int diff) {
         if (vote != null) {
-            for (ResourceLocation roleID : vote.roles()) {
-                VoteStatsKey key = new VoteStatsKey(vote.key().artifactID(), vote.key().categoryID(), roleID);
-                this.countMaps.get(vote.level()).mergeInt(key, 1, Integer::sum);
-                this.countMaps.get(0).mergeInt(key, -1, Integer::sum);
+            int artifactIndex = intern(this.artifactIndices, this.artifacts, vote.key().artifactID());
+            int categoryIndex = intern(this.categoryIndices, this.categories, vote.key().categoryID());
+            Preconditions.checkArgument(categoryIndex <= 0xFFFF, "too many categories");
+            long base = (long) (artifactIndex + 1) << 32 | (long) categoryIndex << 16;
+            ImmutableList<ResourceLocation> roleList = vote.roles().asList();
+            for (int i = 0, roleCount = roleList.size(); i < roleCount; ++i) {
+                int roleIndex = intern(this.roleIndices, this.roles, roleList.get(i));
+                Preconditions.checkArgument(roleIndex <= 0xFFFF, "too many roles");
+                int offset = this.slot(base | roleIndex) * STRIDE;
+                this.counts[offset + vote.level()] += diff;
+                this.counts[offset] -= diff;
             }
         }
     }
 
-    private void decrease(@Nullable Vote vote) {
-        if (vote != null) {
-            for (ResourceLocation roleID : vote.roles()) {
-                VoteStatsKey key = new VoteStatsKey(vote.key().artifactID(), vote.key().categoryID(), roleID);
-                this.countMaps.get(vote.level()).mergeInt(key, -1, Integer::sum);
-                this.countMaps.get(0).mergeInt(key, 1, Integer::sum);
+    private int slot(long key) {
+        int mask = this.keys.length - 1;
+        for (int i = (int) HashCommon.mix(key) & mask; ; i = i + 1 & mask) {
+            long current = this.keys[i];
+            if (current == key) {
+                return i;
+            }
+            if (current == 0L) {
+                if (2 * (this.size + 1) > this.keys.length) {
+                    this.grow();
+                    return this.slot(key);
+                }
+                this.keys[i] = key;
+                this.size += 1;
+                return i;
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = this.keys;
+        int[] oldCounts = this.counts;
+        this.keys = new long[oldKeys.length * 2];
+        this.counts = new int[oldKeys.length * 2 * STRIDE];
+        int mask = this.keys.length - 1;
+        for (int j = 0; j < oldKeys.length; ++j) {
+            if (oldKeys[j] != 0L) {
+                int i = (int) HashCommon.mix(oldKeys[j]) & mask;
+                while (this.keys[i] != 0L) {
+                    i = i + 1 & mask;
+                }
+                this.keys[i] = oldKeys[j];
+                System.arraycopy(oldCounts, j * STRIDE, this.counts, i * STRIDE, STRIDE);
             }
         }
     }
@@ -100,18 +167,41 @@ public final class StatsAccumulator {
     }
 
     public void buildStatsMap(Map<? super VoteStatsKey, ? super ImmutableIntArray> map) {
-        Map<VoteStatsKey, int[]> result = new HashMap<>();
-        for (int i = 0; i < MAX_LEVEL + 1; ++i) {
-            Object2IntMap<VoteStatsKey> countMap = this.countMaps.get(i);
-            for (Object2IntMap.Entry<VoteStatsKey> entry : countMap.object2IntEntrySet()) {
-                int count = entry.getIntValue();
-                if (count != 0) {
-                    result.computeIfAbsent(entry.getKey(), k -> new int[MAX_LEVEL + 1])[i] += count;
-                }
+        for (int i = 0; i < this.keys.length; ++i) {
+            long key = this.keys[i];
+            int offset = i * STRIDE;
+            if (key != 0L && !isZero(this.counts, offset)) {
+                UUID artifactID = this.artifacts.get((int) (key >>> 32) - 1);
+                ResourceLocation categoryID = this.categories.get((int) (key >>> 16) & 0xFFFF);
+                ResourceLocation roleID = this.roles.get((int) key & 0xFFFF);
+                int[] counts = Arrays.copyOfRange(this.counts, offset, offset + STRIDE);
+                map.put(new VoteStatsKey(artifactID, categoryID, roleID), ImmutableIntArray.copyOf(counts));
             }
         }
-        for (Map.Entry<VoteStatsKey, int[]> entry : result.entrySet()) {
-            map.put(entry.getKey(), ImmutableIntArray.copyOf(entry.getValue()));
+    }
+
+    private static boolean isZero(int[] counts, int offset) {
+        for (int i = offset; i < offset + STRIDE; ++i) {
+            if (counts[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <T> int intern(Object2IntMap<T> indices, List<T> values, T value) {
+        int index = indices.getInt(value);
+        if (index < 0) {
+            index = values.size();
+            indices.put(value, index);
+            values.add(value);
         }
+        return index;
+    }
+
+    private static <T> Object2IntMap<T> newIndices() {
+        Object2IntMap<T> indices = new Object2IntOpenHashMap<>();
+        indices.defaultReturnValue(-1);
+        return indices;
     }
 }
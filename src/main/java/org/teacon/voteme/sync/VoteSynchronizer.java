@@ -12,17 +12,20 @@ import java.time.Instant;
 import java.util.Collection;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public interface VoteSynchronizer extends Closeable {
     void publish(Collection<? extends Announcement> announcements);
 
-    Collection<? extends Announcement> dequeue();
+    int dequeue(Consumer<? super Announcement> consumer);
 
     @MethodsReturnNonnullByDefault
     @ParametersAreNonnullByDefault
     sealed interface AnnounceKey<T extends Announcement> permits ArtifactKey, CommentsKey, VoteDisabledKey, VoteKey, VoteStatsKey {
+        UUID artifactID();
+
         T cast(Announcement announcement);
     }
 
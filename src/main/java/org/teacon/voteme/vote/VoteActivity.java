@@ -0,0 +1,64 @@
+package org.teacon.voteme.vote;
+
+import com.google.common.base.Preconditions;
+import net.minecraft.MethodsReturnNonnullByDefault;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.time.Instant;
+
+/*
+ * Votes per hour in a ring buffer, which covers the last week before the latest recorded vote.
+ *
+ * Buckets are indexed by epoch hours modulo the bucket count, and are cleared when the latest hour moves forward.
+ * Only the latest vote of each voter is counted, which is also what is rebuilt after votes are loaded, so a vote
+ * is removed from its bucket once it is replaced.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class VoteActivity {
+    public static final int BUCKET_COUNT = 24 * 7;
+    public static final int BUCKET_SECONDS = 60 * 60;
+
+    private long latestHour = Long.MIN_VALUE;
+    private final int[] buckets = new int[BUCKET_COUNT];
+
+    public void record(Instant time) {
+        long hour = toHour(time);
+        if (hour > this.latestHour) {
+            long cleared = Math.min(BUCKET_COUNT, hour - Math.max(this.latestHour, hour - BUCKET_COUNT));
+            for (long h = hour - cleared + 1; h <= hour; ++h) {
+                this.buckets[Math.floorMod(h, BUCKET_COUNT)] = 0;
+            }
+            this.latestHour = hour;
+        }
+        if (hour > this.latestHour - BUCKET_COUNT) {
+            this.buckets[Math.floorMod(hour, BUCKET_COUNT)] += 1;
+        }
+    }
+
+    public void remove(Instant time) {
+        long hour = toHour(time);
+        if (hour <= this.latestHour && hour > this.latestHour - BUCKET_COUNT) {
+            int index = Math.floorMod(hour, BUCKET_COUNT);
+            this.buckets[index] = Math.max(0, this.buckets[index] - 1);
+        }
+    }
+
+    public int[] collect(Instant now, int hours) {
+        Preconditions.checkArgument(hours > 0 && hours <= BUCKET_COUNT, "hours out of range");
+        // the oldest hour goes first, and the current hour goes last
+        int[] result = new int[hours];
+        long currentHour = toHour(now);
+        for (int i = 0; i < hours; ++i) {
+            long hour = currentHour - hours + 1 + i;
+            if (hour <= this.latestHour && hour > this.latestHour - BUCKET_COUNT) {
+                result[i] = this.buckets[Math.floorMod(hour, BUCKET_COUNT)];
+            }
+        }
+        return result;
+    }
+
+    private static long toHour(Instant time) {
+        return Math.floorDiv(time.getEpochSecond(), BUCKET_SECONDS);
+    }
+}
@@ -0,0 +1,205 @@
+package org.teacon.voteme.vote;
+
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import org.teacon.voteme.VoteMe;
+import org.teacon.voteme.sync.VoteSynchronizer.Announcement;
+import org.teacon.voteme.sync.VoteSynchronizer.VoteStats;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static org.teacon.voteme.sync.AnnouncementSerializer.deserialize;
+import static org.teacon.voteme.sync.AnnouncementSerializer.serialize;
+
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class VoteAnnouncementLog implements Closeable {
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String SEGMENT_PREFIX = "segment_";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_RECORD_LENGTH = 1 << 24;
+
+    private long generation;
+    private @Nullable DataOutputStream output;
+
+    private final Path directory;
+    private final CRC32 checksum = new CRC32();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    VoteAnnouncementLog(Path directory) {
+        this.directory = directory;
+    }
+
+    public int replay(Consumer<? super Announcement> consumer) throws IOException {
+        Files.createDirectories(this.directory);
+        int size = 0;
+        long checkpoint = this.readCheckpoint();
+        long[] generations = this.listSegments();
+        for (long generation : generations) {
+            if (generation >= checkpoint) {
+                size += this.replaySegment(generation, consumer);
+            }
+        }
+        this.generation = Math.max(checkpoint, generations.length > 0 ? generations[generations.length - 1] + 1 : 0);
+        this.output = this.openSegment(this.generation);
+        return size;
+    }
+
+    public void append(Announcement announcement) {
+        // stats are always rebuilt from votes so there is no need to log them
+        if (this.output != null && !(announcement instanceof VoteStats)) {
+            Optional<CompoundTag> optional = serialize(announcement);
+            if (optional.isPresent()) {
+                try {
+                    this.buffer.reset();
+                    NbtIo.write(optional.get(), new DataOutputStream(this.buffer));
+                    this.checksum.reset();
+                    this.checksum.update(this.buffer.toByteArray());
+                    this.output.writeInt(this.buffer.size());
+                    this.output.writeInt((int) this.checksum.getValue());
+                    this.buffer.writeTo(this.output);
+                } catch (IOException e) {
+                    VoteMe.LOGGER.warn("Failed to append " + announcement + " to the announcement log", e);
+                }
+            }
+        }
+    }
+
+    public void flush() {
+        if (this.output != null) {
+            try {
+                this.output.flush();
+            } catch (IOException e) {
+                VoteMe.LOGGER.warn("Failed to flush the announcement log", e);
+            }
+        }
+    }
+
+    public long rotate() {
+        long next = this.generation + 1;
+        if (this.output != null) {
+            try {
+                this.output.close();
+                this.output = this.openSegment(next);
+            } catch (IOException e) {
+                VoteMe.LOGGER.warn("Failed to rotate the announcement log, announcements will not be logged", e);
+                this.output = null;
+            }
+        }
+        this.generation = next;
+        return next;
+    }
+
+    public void checkpoint(long generation) {
+        // every announcement logged before the given generation has been folded into the saved data
+        try {
+            Path tmp = this.directory.resolve(CHECKPOINT + ".tmp");
+            Files.writeString(tmp, Long.toString(generation), StandardCharsets.UTF_8);
+            Files.move(tmp, this.directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.deleteSegmentsBefore(generation);
+        } catch (IOException e) {
+            VoteMe.LOGGER.warn("Failed to make a checkpoint for the announcement log", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.output != null) {
+            this.output.close();
+            this.output = null;
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        Path path = this.directory.resolve(CHECKPOINT);
+        if (Files.isRegularFile(path)) {
+            try {
+                return Long.parseLong(Files.readString(path, StandardCharsets.UTF_8).strip());
+            } catch (NumberFormatException e) {
+                VoteMe.LOGGER.warn("Invalid checkpoint for the announcement log, replaying all segments", e);
+            }
+        }
+        return 0;
+    }
+
+    private long[] listSegments() throws IOException {
+        try (Stream<Path> paths = Files.list(this.directory)) {
+            return paths.map(p -> p.getFileName().toString())
+                    .filter(n -> n.startsWith(SEGMENT_PREFIX) && n.endsWith(SEGMENT_SUFFIX))
+                    .map(n -> n.substring(SEGMENT_PREFIX.length(), n.length() - SEGMENT_SUFFIX.length()))
+                    .filter(n -> n.chars().allMatch(Character::isDigit) && !n.isEmpty())
+                    .mapToLong(Long::parseLong).sorted().toArray();
+        }
+    }
+
+    private Path getSegment(long generation) {
+        return this.directory.resolve(SEGMENT_PREFIX + generation + SEGMENT_SUFFIX);
+    }
+
+    private DataOutputStream openSegment(long generation) throws IOException {
+        Path path = this.getSegment(generation);
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)));
+    }
+
+    private int replaySegment(long generation, Consumer<? super Announcement> consumer) throws IOException {
+        int size = 0;
+        Path path = this.getSegment(generation);
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                int length, expected;
+                byte[] bytes;
+                try {
+                    length = input.readInt();
+                    expected = input.readInt();
+                    if (length < 0 || length > MAX_RECORD_LENGTH) {
+                        VoteMe.LOGGER.warn("Invalid record length in {}, the rest of the segment is skipped", path);
+                        break;
+                    }
+                    bytes = new byte[length];
+                    input.readFully(bytes);
+                } catch (EOFException e) {
+                    // the end of the segment or a torn record written during a crash
+                    break;
+                }
+                this.checksum.reset();
+                this.checksum.update(bytes);
+                if ((int) this.checksum.getValue() != expected) {
+                    VoteMe.LOGGER.warn("Checksum mismatch in {}, the rest of the segment is skipped", path);
+                    break;
+                }
+                CompoundTag nbt = NbtIo.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+                Optional<Announcement> optional = deserialize(nbt);
+                if (optional.isPresent()) {
+                    consumer.accept(optional.get());
+                    size += 1;
+                }
+            }
+        }
+        return size;
+    }
+
+    private void deleteSegmentsBefore(long generation) {
+        try {
+            for (long current : this.listSegments()) {
+                if (current < generation) {
+                    Files.deleteIfExists(this.getSegment(current));
+                }
+            }
+        } catch (IOException e) {
+            VoteMe.LOGGER.warn("Failed to delete folded segments of the announcement log", e);
+        }
+    }
+}
@@ -37,10 +37,16 @@ import static net.minecraft.util.StringUtil.isNullOrEmpty;
 @ParametersAreNonnullByDefault
 @Mod.EventBusSubscriber(bus = Mod.EventBusSubscriber.Bus.FORGE)
 public final class VoteArtifactNames {
+    private boolean queued = false;
     private boolean needsSynchronizationToClient = false;
+    private final Listener listener;
     private final Map<UUID, String> names = new TreeMap<>();
     private final BiMap<UUID, String> aliases = HashBiMap.create();
-    private final Queue<VoteSynchronizer.Announcement> queued = new ArrayDeque<>();
+    private final Queue<VoteSynchronizer.Announcement> queuedAnnouncements = new ArrayDeque<>();
+
+    public VoteArtifactNames(Listener listener) {
+        this.listener = listener;
+    }
 
     public Collection<? extends UUID> getUUIDs() {
         return Collections.unmodifiableCollection(this.names.keySet());
@@ -91,6 +97,9 @@ public final class VoteArtifactNames {
     public void putName(CommandSourceStack source, UUID uuid, String name) {
         if (!name.isEmpty()) {
             String oldName = this.names.put(uuid, name);
+            if (oldName == null) {
+                this.listener.onNamedChanged(uuid, true);
+            }
             if (!name.equals(oldName)) {
                 if (isNullOrEmpty(oldName)) {
                     VoteMe.LOGGER.info("{} ({}) has created artifact to {} ({})",
@@ -105,6 +114,7 @@ public final class VoteArtifactNames {
         } else if (this.names.containsKey(uuid)) {
             this.aliases.remove(uuid);
             String oldName = this.names.remove(uuid);
+            this.listener.onNamedChanged(uuid, false);
             if (!isNullOrEmpty(oldName)) {
                 VoteMe.LOGGER.info("{} ({}) has removed artifact {} ({})",
                         source.getTextName(), source.getDisplayName().getString(), oldName, uuid);
@@ -169,6 +179,9 @@ public final class VoteArtifactNames {
             String alias = child.getString("Alias");
             if (!name.isEmpty()) {
                 String oldName = this.names.put(uuid, name);
+                if (oldName == null) {
+                    this.listener.onNamedChanged(uuid, true);
+                }
                 if (!alias.isEmpty() && trimValidAlias(alias) == alias.length()) {
                     UUID oldArtifactID = this.aliases.inverse().remove(alias);
                     String oldAlias = this.aliases.put(uuid, alias);
@@ -199,20 +212,29 @@ public final class VoteArtifactNames {
         return names.size();
     }
 
-    public void publish(VoteSynchronizer.Announcement announcement) {
+    public boolean publish(VoteSynchronizer.Announcement announcement) {
         if (announcement instanceof VoteSynchronizer.Artifact artifact) {
             UUID artifactID = artifact.key().artifactID();
+            boolean changed;
             if (artifact.name().isEmpty()) {
                 String oldName = this.names.remove(artifactID);
-                this.aliases.remove(artifactID);
+                String oldAlias = this.aliases.remove(artifactID);
+                if (oldName != null) {
+                    this.listener.onNamedChanged(artifactID, false);
+                }
                 if (!isNullOrEmpty(oldName)) {
                     this.needsSynchronizationToClient = true;
                 }
+                changed = oldName != null || oldAlias != null;
             } else {
                 String oldName = this.names.put(artifactID, artifact.name());
+                if (oldName == null) {
+                    this.listener.onNamedChanged(artifactID, true);
+                }
                 if (!artifact.name().equals(oldName)) {
                     this.needsSynchronizationToClient = true;
                 }
+                changed = !artifact.name().equals(oldName);
                 if (artifact.alias().isPresent()) {
                     String aliasString = artifact.alias().get();
                     UUID oldArtifactID = this.aliases.inverse().remove(aliasString);
@@ -220,25 +242,32 @@ public final class VoteArtifactNames {
                     if (!isNullOrEmpty(oldAlias) || !artifactID.equals(oldArtifactID)) {
                         this.needsSynchronizationToClient = true;
                     }
+                    changed |= !artifactID.equals(oldArtifactID);
                 } else if (this.aliases.containsKey(artifactID)) {
                     this.aliases.remove(artifactID);
                     this.needsSynchronizationToClient = true;
+                    changed = true;
                 }
             }
-            return;
+            return changed;
         }
         throw new IllegalArgumentException("unsupported announcement type: " + announcement.getClass());
     }
 
     public void dequeue(Collection<? super VoteSynchronizer.Announcement> drainTo) {
-        drainTo.addAll(this.queued);
-        this.queued.clear();
+        drainTo.addAll(this.queuedAnnouncements);
+        this.queuedAnnouncements.clear();
+        this.queued = false;
     }
 
     private void emitArtifactAnnouncement(UUID uuid) {
         String name = this.names.getOrDefault(uuid, "");
         Optional<String> alias = Optional.ofNullable(this.aliases.get(uuid)).filter(a -> !a.isEmpty());
-        this.queued.add(new VoteSynchronizer.Artifact(new VoteSynchronizer.ArtifactKey(uuid), name, alias));
+        this.queuedAnnouncements.add(new VoteSynchronizer.Artifact(new VoteSynchronizer.ArtifactKey(uuid), name, alias));
+        if (!this.queued) {
+            this.queued = true;
+            this.listener.onQueued(this);
+        }
     }
 
     @SubscribeEvent
@@ -255,6 +284,7 @@ public final class VoteArtifactNames {
     public static void onTick(TickEvent.ServerTickEvent event) {
         VoteArtifactNames instance = VoteDataStorage.get(ServerLifecycleHooks.getCurrentServer()).getArtifactNames();
         if (instance.needsSynchronizationToClient && event.phase == TickEvent.Phase.START) {
+            instance.needsSynchronizationToClient = false;
             SyncArtifactNamePacket packet = SyncArtifactNamePacket.create(instance.names, instance.aliases);
             VoteMePacketManager.CHANNEL.send(PacketDistributor.ALL.noArg(), packet);
         }
@@ -297,6 +327,18 @@ public final class VoteArtifactNames {
     }
 
     private static final class Client {
-        public static final VoteArtifactNames VOTE_ARTIFACT_NAMES = new VoteArtifactNames(); // lazy classloading
+        public static final VoteArtifactNames VOTE_ARTIFACT_NAMES = new VoteArtifactNames(new Listener() {}); // lazy classloading
+    }
+
+    @MethodsReturnNonnullByDefault
+    @ParametersAreNonnullByDefault
+    public interface Listener {
+        default void onQueued(VoteArtifactNames artifactNames) {
+            // do nothing by default
+        }
+
+        default void onNamedChanged(UUID artifactID, boolean named) {
+            // do nothing by default
+        }
     }
 }
@@ -0,0 +1,309 @@
+package org.teacon.voteme.vote;
+
+import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongMaps;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
+import net.minecraft.MethodsReturnNonnullByDefault;
+import org.teacon.voteme.VoteMe;
+import org.teacon.voteme.sync.VoteSynchronizer.CommentsKey;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/*
+ * Comments are appended to a single file as records, and the latest record of each artifact and voter wins.
+ *
+ * record: int (payload length), int (crc32 of payload), payload
+ * payload: long * 2 (artifact), long * 2 (voter), int (comment count), utf string * comment count
+ *
+ * Only locations of records are kept in the heap, encoded as offset (40 bits) and payload length (24 bits).
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class VoteCommentStore implements Closeable {
+    private static final int CACHE_SIZE = 1024;
+    private static final int HEADER_LENGTH = 8;
+    private static final int MAX_PAYLOAD_LENGTH = 1 << 20;
+    private static final long COMPACTION_THRESHOLD = 1L << 20;
+
+    private long size;
+    private long garbage;
+    private FileChannel channel;
+
+    private final Path path;
+    private final CRC32 checksum = new CRC32();
+    private final Map<UUID, Object2LongMap<UUID>> locations = new HashMap<>();
+    private final Map<CommentsKey, ImmutableList<String>> cache = new LinkedHashMap<>(16, 0.75F, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CommentsKey, ImmutableList<String>> eldest) {
+            return this.size() > CACHE_SIZE;
+        }
+    };
+
+    VoteCommentStore(Path path) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.scan();
+    }
+
+    public ImmutableList<String> get(UUID artifactID, UUID voterID) {
+        CommentsKey key = new CommentsKey(artifactID, voterID);
+        ImmutableList<String> comments = this.cache.get(key);
+        if (comments == null) {
+            Object2LongMap<UUID> row = this.locations.get(artifactID);
+            if (row == null || !row.containsKey(voterID)) {
+                return ImmutableList.of();
+            }
+            try {
+                comments = read(this.channel, row.getLong(voterID));
+                this.cache.put(key, comments);
+            } catch (IOException e) {
+                VoteMe.LOGGER.error("Failed to read comments of " + voterID + " for " + artifactID, e);
+                return ImmutableList.of();
+            }
+        }
+        return comments;
+    }
+
+    public Map<UUID, ImmutableList<String>> getAll(UUID artifactID) {
+        Object2LongMap<UUID> row = this.locations.get(artifactID);
+        if (row == null) {
+            return Map.of();
+        }
+        Map<UUID, ImmutableList<String>> result = new LinkedHashMap<>(row.size());
+        for (UUID voterID : List.copyOf(row.keySet())) {
+            result.put(voterID, this.get(artifactID, voterID));
+        }
+        return result;
+    }
+
+    public Snapshot snapshot() throws IOException {
+        // records are never modified once appended, and the file opened here is kept even if compacted
+        Map<UUID, Object2LongMap<UUID>> locations = new HashMap<>(this.locations.size());
+        this.locations.forEach((artifactID, row) -> locations.put(artifactID, new Object2LongOpenHashMap<>(row)));
+        return new Snapshot(FileChannel.open(this.path, StandardOpenOption.READ), locations);
+    }
+
+    public void put(UUID artifactID, UUID voterID, ImmutableList<String> comments) {
+        if (comments.equals(this.get(artifactID, voterID))) {
+            return;
+        }
+        try {
+            long location = this.append(artifactID, voterID, comments);
+            long oldLocation;
+            if (comments.isEmpty()) {
+                // the record is kept only to overwrite older ones on scanning, until compaction
+                Object2LongMap<UUID> row = this.locations.get(artifactID);
+                oldLocation = row.removeLong(voterID);
+                if (row.isEmpty()) {
+                    this.locations.remove(artifactID);
+                }
+                this.garbage += HEADER_LENGTH + getLength(location);
+            } else {
+                Object2LongMap<UUID> row = this.locations.computeIfAbsent(artifactID, k -> newRow());
+                oldLocation = row.put(voterID, location);
+            }
+            if (oldLocation >= 0L) {
+                this.garbage += HEADER_LENGTH + getLength(oldLocation);
+            }
+            this.cache.put(new CommentsKey(artifactID, voterID), comments);
+        } catch (IOException e) {
+            VoteMe.LOGGER.error("Failed to write comments of " + voterID + " for " + artifactID, e);
+        }
+    }
+
+    public void compactIfNeeded() {
+        if (this.garbage > COMPACTION_THRESHOLD && this.garbage * 2 > this.size) {
+            try {
+                long oldSize = this.size;
+                this.compact();
+                VoteMe.LOGGER.info("Compacted comments from {} bytes to {} bytes.", oldSize, this.size);
+            } catch (IOException e) {
+                VoteMe.LOGGER.warn("Failed to compact comments, will retry next time", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private void scan() throws IOException {
+        long position = 0L, end = this.channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (position + HEADER_LENGTH <= end) {
+            readFully(this.channel, header.clear(), position);
+            int length = header.getInt(0), expected = header.getInt(4);
+            if (length < 0 || length > MAX_PAYLOAD_LENGTH || position + HEADER_LENGTH + length > end) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            readFully(this.channel, ByteBuffer.wrap(payload), position + HEADER_LENGTH);
+            this.checksum.reset();
+            this.checksum.update(payload);
+            if ((int) this.checksum.getValue() != expected) {
+                break;
+            }
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+            UUID artifactID = new UUID(input.readLong(), input.readLong());
+            UUID voterID = new UUID(input.readLong(), input.readLong());
+            Object2LongMap<UUID> row = this.locations.computeIfAbsent(artifactID, k -> newRow());
+            boolean present = input.readInt() > 0;
+            long oldLocation = present ? row.put(voterID, position << 24 | length) : row.removeLong(voterID);
+            if (oldLocation >= 0L) {
+                this.garbage += HEADER_LENGTH + getLength(oldLocation);
+            }
+            if (!present) {
+                this.garbage += HEADER_LENGTH + length;
+            }
+            if (row.isEmpty()) {
+                this.locations.remove(artifactID);
+            }
+            position += HEADER_LENGTH + length;
+        }
+        if (position < end) {
+            // a torn record written during a crash
+            VoteMe.LOGGER.warn("Truncated {} bytes of broken comments from {}", end - position, this.path);
+            this.channel.truncate(position);
+        }
+        this.size = position;
+    }
+
+    private static ImmutableList<String> read(FileChannel channel, long location) throws IOException {
+        byte[] payload = new byte[getLength(location)];
+        readFully(channel, ByteBuffer.wrap(payload), getOffset(location) + HEADER_LENGTH);
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+        input.skipNBytes(Long.BYTES * 4);
+        ImmutableList.Builder<String> builder = ImmutableList.builder();
+        for (int i = input.readInt(); i > 0; --i) {
+            builder.add(input.readUTF());
+        }
+        return builder.build();
+    }
+
+    private long append(UUID artifactID, UUID voterID, List<String> comments) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(buffer);
+        output.writeInt(0);
+        output.writeInt(0);
+        output.writeLong(artifactID.getMostSignificantBits());
+        output.writeLong(artifactID.getLeastSignificantBits());
+        output.writeLong(voterID.getMostSignificantBits());
+        output.writeLong(voterID.getLeastSignificantBits());
+        output.writeInt(comments.size());
+        for (String comment : comments) {
+            output.writeUTF(comment);
+        }
+        ByteBuffer record = ByteBuffer.wrap(buffer.toByteArray());
+        int length = record.remaining() - HEADER_LENGTH;
+        if (length > MAX_PAYLOAD_LENGTH) {
+            throw new IOException("comments too long: " + length + " bytes");
+        }
+        this.checksum.reset();
+        this.checksum.update(record.array(), HEADER_LENGTH, length);
+        record.putInt(0, length).putInt(4, (int) this.checksum.getValue());
+        long offset = this.size;
+        while (record.hasRemaining()) {
+            this.channel.write(record, offset + record.position());
+        }
+        this.size = offset + HEADER_LENGTH + length;
+        return offset << 24 | length;
+    }
+
+    private void compact() throws IOException {
+        Path tmp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+        Map<UUID, Object2LongMap<UUID>> newLocations = new HashMap<>(this.locations.size());
+        long position = 0L;
+        try (FileChannel output = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (Map.Entry<UUID, Object2LongMap<UUID>> row : this.locations.entrySet()) {
+                Object2LongMap<UUID> newRow = newLocations.computeIfAbsent(row.getKey(), k -> newRow());
+                for (Object2LongMap.Entry<UUID> entry : Object2LongMaps.fastIterable(row.getValue())) {
+                    long offset = getOffset(entry.getLongValue());
+                    int length = getLength(entry.getLongValue());
+                    for (long count = 0L; count < HEADER_LENGTH + length; ) {
+                        count += this.channel.transferTo(offset + count, HEADER_LENGTH + length - count, output);
+                    }
+                    newRow.put(entry.getKey(), position << 24 | length);
+                    position += HEADER_LENGTH + length;
+                }
+            }
+            output.force(true);
+        }
+        this.channel.close();
+        try {
+            Files.move(tmp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            this.channel = FileChannel.open(this.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        this.locations.clear();
+        this.locations.putAll(newLocations);
+        this.size = position;
+        this.garbage = 0L;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    @MethodsReturnNonnullByDefault
+    @ParametersAreNonnullByDefault
+    public static final class Snapshot implements Closeable {
+        private final FileChannel channel;
+        private final Map<UUID, Object2LongMap<UUID>> locations;
+
+        private Snapshot(FileChannel channel, Map<UUID, Object2LongMap<UUID>> locations) {
+            this.channel = channel;
+            this.locations = locations;
+        }
+
+        public void forEach(UUID artifactID, CommentsConsumer consumer) throws IOException {
+            Object2LongMap<UUID> row = this.locations.get(artifactID);
+            if (row != null) {
+                for (Object2LongMap.Entry<UUID> entry : Object2LongMaps.fastIterable(row)) {
+                    consumer.accept(entry.getKey(), read(this.channel, entry.getLongValue()));
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+
+    @FunctionalInterface
+    @MethodsReturnNonnullByDefault
+    @ParametersAreNonnullByDefault
+    public interface CommentsConsumer {
+        void accept(UUID voterID, ImmutableList<String> comments) throws IOException;
+    }
+
+    private static Object2LongMap<UUID> newRow() {
+        Object2LongMap<UUID> row = new Object2LongOpenHashMap<>();
+        row.defaultReturnValue(-1L);
+        return row;
+    }
+
+    private static long getOffset(long location) {
+        return location >>> 24;
+    }
+
+    private static int getLength(long location) {
+        return (int) (location & 0xFFFFFF);
+    }
+}
@@ -0,0 +1,53 @@
+package org.teacon.voteme.vote;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectRBTreeMap;
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.level.saveddata.SavedData;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.File;
+
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class VoteDataShard extends SavedData {
+    private final int index;
+    private final VoteDataStorage storage;
+    private final Int2ObjectMap<VoteList> voteLists;
+
+    VoteDataShard(VoteDataStorage storage, int index) {
+        this.index = index;
+        this.storage = storage;
+        this.voteLists = new Int2ObjectRBTreeMap<>();
+    }
+
+    public String getName() {
+        return String.format("vote_lists_%02x", this.index);
+    }
+
+    public Int2ObjectMap<VoteList> getVoteLists() {
+        return this.voteLists;
+    }
+
+    public VoteDataShard load(CompoundTag nbt) {
+        boolean dirty = this.isDirty();
+        this.storage.loadShard(this, nbt);
+        this.setDirty(dirty);
+        return this;
+    }
+
+    @Override
+    public void save(File file) {
+        if (this.isDirty()) {
+            this.storage.getWriter().write(this, file, this.storage.snapshotShard(this));
+            this.setDirty(false);
+        }
+    }
+
+    @Override
+    public CompoundTag save(CompoundTag nbt) {
+        this.storage.snapshotShard(this).accept(nbt);
+        return nbt;
+    }
+}
@@ -1,14 +1,19 @@
 package org.teacon.voteme.vote;
 
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Table;
-import com.google.common.collect.TreeBasedTable;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectRBTreeMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.MethodsReturnNonnullByDefault;
 import net.minecraft.Util;
 import net.minecraft.nbt.CompoundTag;
@@ -16,25 +21,41 @@ import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.Tag;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.MinecraftServer;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.Level;
 import net.minecraft.world.level.saveddata.SavedData;
 import net.minecraft.world.level.storage.DimensionDataStorage;
+import net.minecraft.world.level.storage.LevelResource;
 import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.event.level.LevelEvent;
 import net.minecraftforge.event.server.ServerStartingEvent;
-import net.minecraftforge.event.server.ServerStoppingEvent;
+import net.minecraftforge.event.server.ServerStoppedEvent;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.common.Mod;
 import net.minecraftforge.server.ServerLifecycleHooks;
 import org.apache.commons.lang3.text.StrSubstitutor;
 import org.teacon.voteme.VoteMe;
 import org.teacon.voteme.category.VoteCategoryHandler;
+import org.teacon.voteme.roles.VoteRoleHandler;
 import org.teacon.voteme.sync.DetachedSynchronizer;
 import org.teacon.voteme.sync.RedisSynchronizer;
 import org.teacon.voteme.sync.VoteSynchronizer;
 
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
 
 import static org.teacon.voteme.sync.AnnouncementSerializer.deserialize;
@@ -44,14 +65,37 @@ import static org.teacon.voteme.sync.AnnouncementSerializer.serialize;
 @ParametersAreNonnullByDefault
 @Mod.EventBusSubscriber(bus = Mod.EventBusSubscriber.Bus.FORGE)
 public final class VoteDataStorage extends SavedData implements Closeable {
+    private static final int SHARD_COUNT = 16;
+    private static final long WARMUP_NANOS_PER_TICK = 5_000_000L;
+    private static final int PARALLEL_DECODING_THRESHOLD = 4096;
+    private static final long RESCORING_NANOS_PER_TICK = 2_000_000L;
+
     private int nextIndex;
+    private int rescoringEpoch;
+    private int rescoringCursor;
+    private int leaderboardsEpoch;
+
+    private final VoteDataShard[] shards;
 
     private final VoteArtifactNames artifactNames;
-    private final Int2ObjectMap<VoteList> voteLists;
-    private final Table<UUID, ResourceLocation, Integer> voteListIDs;
-    private final Table<UUID, UUID, ImmutableList<String>> voteComments;
+    private VoteList[] voteLists;
+    private final Int2ObjectMap<VoteRecordFormat.Block> pendingVotes;
+    private final Queue<VoteList> queuedVoteLists;
+    private final VoteList.Listener voteListListener;
+    private final Map<ResourceLocation, VoteList> emptyVoteLists;
+    private final Object2IntMap<ResourceLocation> explicitEnabledCounts;
+    private final Object2IntMap<ResourceLocation> explicitDisabledCounts;
+    private boolean artifactNamesQueued;
+    private final Long2IntMap voteListIDs;
+    private final Object2IntMap<UUID> artifactIndices;
+    private final List<IntList> artifactVoteListIDs;
+    private final VoteCommentStore voteComments;
+    private final Map<ResourceLocation, VoteLeaderboard> leaderboards;
+    private final Set<VoteSynchronizer.VoteDisabledKey> staleRankings;
 
     private final VoteSynchronizer sync;
+    private final VoteAnnouncementLog log;
+    private final VoteDataWriter writer;
 
     public static VoteDataStorage get(MinecraftServer server) {
         DimensionDataStorage manager = server.overworld().getDataStorage();
@@ -60,21 +104,106 @@ public final class VoteDataStorage extends SavedData implements Closeable {
 
     public VoteDataStorage() {
         this.nextIndex = 1;
-        this.artifactNames = new VoteArtifactNames();
-        this.voteLists = new Int2ObjectRBTreeMap<>();
-        this.voteListIDs = TreeBasedTable.create();
-        this.voteComments = HashBasedTable.create();
+        this.artifactNames = new VoteArtifactNames(this.new ArtifactNamesListener());
+        this.voteLists = new VoteList[16];
+        this.pendingVotes = new Int2ObjectRBTreeMap<>();
+        this.queuedVoteLists = new ArrayDeque<>();
+        this.voteListListener = this.new VoteListListener();
+        this.emptyVoteLists = new HashMap<>();
+        this.explicitEnabledCounts = new Object2IntOpenHashMap<>();
+        this.explicitDisabledCounts = new Object2IntOpenHashMap<>();
+        this.voteListIDs = new Long2IntOpenHashMap();
+        this.artifactIndices = Util.make(new Object2IntOpenHashMap<>(), m -> m.defaultReturnValue(-1));
+        this.artifactVoteListIDs = new ArrayList<>();
+        this.voteComments = this.createCommentStore();
+        this.leaderboards = new HashMap<>();
+        this.staleRankings = new LinkedHashSet<>();
         this.sync = this.loadSynchronizer();
+        this.log = this.createLog();
+        this.writer = new VoteDataWriter(ServerLifecycleHooks.getCurrentServer());
+        this.shards = this.createShards();
+        this.loadShards();
+        this.replayLog();
     }
 
     public VoteDataStorage(CompoundTag nbt) {
         this.nextIndex = 1;
-        this.artifactNames = new VoteArtifactNames();
-        this.voteLists = new Int2ObjectRBTreeMap<>();
-        this.voteListIDs = TreeBasedTable.create();
-        this.voteComments = HashBasedTable.create();
+        this.artifactNames = new VoteArtifactNames(this.new ArtifactNamesListener());
+        this.voteLists = new VoteList[16];
+        this.pendingVotes = new Int2ObjectRBTreeMap<>();
+        this.queuedVoteLists = new ArrayDeque<>();
+        this.voteListListener = this.new VoteListListener();
+        this.emptyVoteLists = new HashMap<>();
+        this.explicitEnabledCounts = new Object2IntOpenHashMap<>();
+        this.explicitDisabledCounts = new Object2IntOpenHashMap<>();
+        this.voteListIDs = new Long2IntOpenHashMap();
+        this.artifactIndices = Util.make(new Object2IntOpenHashMap<>(), m -> m.defaultReturnValue(-1));
+        this.artifactVoteListIDs = new ArrayList<>();
+        this.voteComments = this.createCommentStore();
+        this.leaderboards = new HashMap<>();
+        this.staleRankings = new LinkedHashSet<>();
         this.sync = this.loadSynchronizer();
+        this.log = this.createLog();
+        this.writer = new VoteDataWriter(ServerLifecycleHooks.getCurrentServer());
+        this.shards = this.createShards();
         this.load(nbt);
+        this.loadShards();
+        this.replayLog();
+    }
+
+    private VoteCommentStore createCommentStore() {
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        try {
+            // records are not nbt, so they are kept in a directory of their own like the announcement log
+            Path directory = server.getWorldPath(LevelResource.ROOT).resolve("data").resolve("vote_comments");
+            return new VoteCommentStore(Files.createDirectories(directory).resolve("comments.log"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private VoteAnnouncementLog createLog() {
+        MinecraftServer server = ServerLifecycleHooks.getCurrentServer();
+        return new VoteAnnouncementLog(server.getWorldPath(LevelResource.ROOT).resolve("data").resolve("vote_lists_log"));
+    }
+
+    private void replayLog() {
+        try {
+            int size = this.log.replay(this::loadAnnouncement);
+            if (size > 0) {
+                VoteMe.LOGGER.info("Replayed {} data from the announcement log on server.", size);
+            }
+        } catch (IOException e) {
+            VoteMe.LOGGER.error("Failed to replay the announcement log, announcements will not be logged", e);
+        }
+    }
+
+    private VoteDataShard[] createShards() {
+        return IntStream.range(0, SHARD_COUNT).mapToObj(i -> new VoteDataShard(this, i)).toArray(VoteDataShard[]::new);
+    }
+
+    private void loadShards() {
+        boolean dirty = this.isDirty();
+        DimensionDataStorage manager = ServerLifecycleHooks.getCurrentServer().overworld().getDataStorage();
+        for (VoteDataShard shard : this.shards) {
+            manager.computeIfAbsent(shard::load, () -> shard, shard.getName());
+        }
+        this.setDirty(dirty);
+    }
+
+    private VoteDataShard getShard(UUID artifactID) {
+        return this.shards[Math.floorMod(artifactID.hashCode(), SHARD_COUNT)];
+    }
+
+    private void markDirty(VoteSynchronizer.Announcement announcement) {
+        if (announcement instanceof VoteSynchronizer.Artifact) {
+            this.setDirty();
+            return;
+        }
+        // comments are stored separately
+        if (!(announcement instanceof VoteSynchronizer.Comments)) {
+            this.getShard(announcement.key().artifactID()).setDirty();
+        }
     }
 
     @SuppressWarnings("deprecation")
@@ -86,59 +215,147 @@ public final class VoteDataStorage extends SavedData implements Closeable {
         return new DetachedSynchronizer(ServerLifecycleHooks.getCurrentServer());
     }
 
+    private final class VoteListListener implements VoteList.Listener {
+        @Override
+        public void onQueued(VoteList voteList) {
+            VoteDataStorage.this.queuedVoteLists.offer(voteList);
+        }
+
+        @Override
+        public void onEnabledChanged(VoteList voteList, Optional<Boolean> oldEnabled) {
+            // only vote lists of named artifacts are counted
+            if (VoteDataStorage.this.artifactNames.getUUIDs().contains(voteList.getArtifactID())) {
+                VoteDataStorage.this.updateEnabledCounts(voteList.getCategoryID(), oldEnabled, -1);
+                VoteDataStorage.this.updateEnabledCounts(voteList.getCategoryID(), voteList.getEnabled(), 1);
+            }
+            VoteDataStorage.this.markRankingStale(voteList.getArtifactID(), voteList.getCategoryID());
+        }
+
+        @Override
+        public void onStatsChanged(VoteList voteList) {
+            VoteDataStorage.this.markRankingStale(voteList.getArtifactID(), voteList.getCategoryID());
+        }
+    }
+
+    private final class ArtifactNamesListener implements VoteArtifactNames.Listener {
+        @Override
+        public void onQueued(VoteArtifactNames artifactNames) {
+            VoteDataStorage.this.artifactNamesQueued = true;
+        }
+
+        @Override
+        public void onNamedChanged(UUID artifactID, boolean named) {
+            int artifactIndex = VoteDataStorage.this.artifactIndices.getInt(artifactID);
+            if (artifactIndex >= 0) {
+                IntList ids = VoteDataStorage.this.artifactVoteListIDs.get(artifactIndex);
+                for (int i = 0, size = ids.size(); i < size; ++i) {
+                    VoteList voteList = VoteDataStorage.this.voteLists[ids.getInt(i)];
+                    VoteDataStorage.this.updateEnabledCounts(voteList.getCategoryID(), voteList.getEnabled(), named ? 1 : -1);
+                }
+            }
+            for (ResourceLocation category : VoteDataStorage.this.leaderboards.keySet()) {
+                VoteDataStorage.this.markRankingStale(artifactID, category);
+            }
+        }
+    }
+
     private void tick() {
-        // upload announcements
-        Collection<VoteSynchronizer.Announcement> toUpload = new ArrayList<>();
-        this.voteLists.values().forEach(v -> v.dequeue(toUpload));
-        this.artifactNames.dequeue(toUpload);
-        if (!toUpload.isEmpty()) {
-            this.sync.publish(toUpload);
-            this.setDirty();
+        // upload announcements (only from vote lists and artifact names which have queued some)
+        if (!this.queuedVoteLists.isEmpty() || this.artifactNamesQueued) {
+            Collection<VoteSynchronizer.Announcement> toUpload = new ArrayList<>();
+            for (VoteList voteList = this.queuedVoteLists.poll(); voteList != null; voteList = this.queuedVoteLists.poll()) {
+                voteList.dequeue(toUpload);
+            }
+            if (this.artifactNamesQueued) {
+                this.artifactNamesQueued = false;
+                this.artifactNames.dequeue(toUpload);
+            }
+            if (!toUpload.isEmpty()) {
+                this.sync.publish(toUpload);
+                for (VoteSynchronizer.Announcement announcement : toUpload) {
+                    this.markDirty(announcement);
+                    this.log.append(announcement);
+                }
+                this.log.flush();
+            }
         }
 
-        // download announcements
-        Collection<? extends VoteSynchronizer.Announcement> toDownload = this.sync.dequeue();
-        if (!toDownload.isEmpty()) {
-            toDownload.forEach(this::handle);
-            this.setDirty();
+        // download announcements (those coming back from the synchronizer change nothing so they are not logged)
+        int downloaded = this.sync.dequeue(announcement -> {
+            if (this.handle(announcement)) {
+                this.markDirty(announcement);
+                this.log.append(announcement);
+            }
+        });
+        if (downloaded > 0) {
+            this.log.flush();
+        }
+
+        // warm up vote lists which have not been accessed
+        if (!this.pendingVotes.isEmpty() && VoteMe.CONFIG.VOTE_LIST_WARMUP.get()) {
+            long deadline = System.nanoTime() + WARMUP_NANOS_PER_TICK;
+            do {
+                this.hydrate(this.pendingVotes.keySet().iterator().nextInt());
+            } while (!this.pendingVotes.isEmpty() && System.nanoTime() < deadline);
+            if (this.pendingVotes.isEmpty()) {
+                VoteMe.LOGGER.info("Finished loading votes of all the vote lists on server.");
+            }
+        }
+
+        // rebuild scores after roles or categories are reloaded, instead of all at once on the next access
+        int epoch = VoteRoleHandler.getEpoch();
+        if (this.rescoringEpoch != epoch) {
+            this.rescoringEpoch = epoch;
+            this.rescoringCursor = 1;
+        }
+        if (this.rescoringCursor < this.nextIndex) {
+            long deadline = System.nanoTime() + RESCORING_NANOS_PER_TICK;
+            do {
+                VoteList voteList = this.getVoteListDirectly(this.rescoringCursor++);
+                if (voteList != null) {
+                    voteList.getFinalScore();
+                }
+            } while (this.rescoringCursor < this.nextIndex && System.nanoTime() < deadline);
         }
     }
 
-    private void handle(VoteSynchronizer.Announcement announcement) {
+    private boolean handle(VoteSynchronizer.Announcement announcement) {
+        // returns whether anything has been changed
         if (announcement instanceof VoteSynchronizer.Artifact artifact) {
-            this.artifactNames.publish(artifact);
-            return;
+            return this.artifactNames.publish(artifact);
         }
         if (announcement instanceof VoteSynchronizer.Comments comments) {
-            this.handleCommentsAnnouncement(comments);
-            return;
+            return this.handleCommentsAnnouncement(comments);
         }
         if (announcement instanceof VoteSynchronizer.VoteDisabled voteDisabled) {
+            // votes are not involved so there is no need to load them
             int id = this.getIdOrCreate(voteDisabled.key().artifactID(), voteDisabled.key().categoryID());
-            this.getVoteList(id).ifPresent(v -> v.publish(voteDisabled));
-            return;
+            return this.voteLists[id].publish(voteDisabled);
         }
         if (announcement instanceof VoteSynchronizer.Vote vote) {
             int id = this.getIdOrCreate(vote.key().artifactID(), vote.key().categoryID());
-            this.getVoteList(id).ifPresent(v -> v.publish(vote));
-            return;
+            return this.getVoteList(id).map(v -> v.publish(vote)).orElse(false);
         }
         if (announcement instanceof VoteSynchronizer.VoteStats voteStats) {
+            // votes are not involved so there is no need to load them
             int id = this.getIdOrCreate(voteStats.key().artifactID(), voteStats.key().categoryID());
-            this.getVoteList(id).ifPresent(v -> v.publish(voteStats));
-            return;
+            return this.voteLists[id].publish(voteStats);
         }
         throw new IllegalArgumentException("unsupported announcement type: " + announcement.getClass());
     }
 
-    private void handleCommentsAnnouncement(VoteSynchronizer.Comments comments) {
-        this.voteComments.put(comments.key().artifactID(), comments.key().voterID(), comments.comments());
+    private boolean handleCommentsAnnouncement(VoteSynchronizer.Comments comments) {
+        UUID artifactID = comments.key().artifactID(), voterID = comments.key().voterID();
+        if (!comments.comments().equals(this.voteComments.get(artifactID, voterID))) {
+            this.voteComments.put(artifactID, voterID, comments.comments());
+            return true;
+        }
+        return false;
     }
 
     private void emitCommentsAnnouncement(UUID artifactID, UUID voterID, ImmutableList<String> comments) {
         VoteSynchronizer.CommentsKey key = new VoteSynchronizer.CommentsKey(artifactID, voterID);
         this.sync.publish(List.of(new VoteSynchronizer.Comments(key, comments)));
-        this.setDirty();
     }
 
     public VoteArtifactNames getArtifactNames() {
@@ -146,10 +363,19 @@ public final class VoteDataStorage extends SavedData implements Closeable {
     }
 
     public boolean hasEnabled(ResourceLocation category) {
+        // counts are independent of enabled defaults so that they are still valid after categories are reloaded
         boolean enabledDefault = VoteCategoryHandler.getCategory(category).filter(c -> c.enabledDefault).isPresent();
-        return this.artifactNames.getUUIDs().stream()
-                .map(id -> this.voteLists.get(this.getIdOrCreate(id, category)))
-                .anyMatch(votes -> votes.getEnabled().orElse(enabledDefault));
+        if (enabledDefault) {
+            return this.artifactNames.getUUIDs().size() > this.explicitDisabledCounts.getInt(category);
+        }
+        return this.explicitEnabledCounts.getInt(category) > 0;
+    }
+
+    private void updateEnabledCounts(ResourceLocation category, Optional<Boolean> enabled, int diff) {
+        if (enabled.isPresent()) {
+            Object2IntMap<ResourceLocation> counts = enabled.get() ? this.explicitEnabledCounts : this.explicitDisabledCounts;
+            counts.mergeInt(category, diff, Integer::sum);
+        }
     }
 
     public int getIdOrCreate(UUID artifactID, ResourceLocation category) {
@@ -157,45 +383,184 @@ public final class VoteDataStorage extends SavedData implements Closeable {
     }
 
     private int getIdOrCreate(UUID artifactID, ResourceLocation category, int hint) {
-        Integer oldId = this.voteListIDs.get(artifactID, category);
-        if (oldId == null) {
-            int id = this.voteLists.containsKey(hint) ? this.nextIndex : hint;
+        int artifactIndex = this.artifactIndices.getInt(artifactID);
+        if (artifactIndex < 0) {
+            artifactIndex = this.artifactVoteListIDs.size();
+            this.artifactIndices.put(artifactID, artifactIndex);
+            this.artifactVoteListIDs.add(new IntArrayList(1));
+        }
+        long key = (long) artifactIndex << 32 | VoteCategoryHandler.getIndex(category);
+        int oldId = this.voteListIDs.get(key);
+        if (oldId == 0) {
+            int id = hint <= 0 || this.getVoteListDirectly(hint) != null ? this.nextIndex : hint;
             this.nextIndex = Math.max(this.nextIndex, id + 1);
-            this.voteListIDs.put(artifactID, category, id);
-            this.voteLists.put(id, new VoteList(artifactID, category));
+            if (id >= this.voteLists.length) {
+                this.voteLists = Arrays.copyOf(this.voteLists, Math.max(id + 1, this.voteLists.length * 2));
+            }
+            VoteList voteList = new VoteList(artifactID, category, this.voteListListener);
+            VoteDataShard shard = this.getShard(artifactID);
+            this.voteListIDs.put(key, id);
+            this.artifactVoteListIDs.get(artifactIndex).add(id);
+            this.voteLists[id] = voteList;
+            shard.getVoteLists().put(id, voteList);
+            shard.setDirty();
             this.setDirty();
             return id;
         }
         return oldId;
     }
 
-    public Optional<VoteList> getVoteList(int id) {
-        return Optional.ofNullable(this.voteLists.get(id));
+    public VoteList find(UUID artifactID, ResourceLocation category) {
+        // vote lists are only created on write, so a shared empty one is returned if absent
+        int id = this.findId(artifactID, category);
+        if (id != 0) {
+            return this.getVoteList(id).orElseThrow(IllegalStateException::new);
+        }
+        return this.emptyVoteLists.computeIfAbsent(category, VoteList::empty);
     }
 
-    public static ImmutableList<String> getCommentFor(VoteDataStorage handler, UUID artifactID, UUID voterID) {
-        if (handler.voteComments.contains(artifactID, voterID)) {
-            return Objects.requireNonNull(handler.voteComments.get(artifactID, voterID));
+    private VoteList findDirectly(UUID artifactID, ResourceLocation category) {
+        // votes are not loaded, which is enough for stats (which are saved with votes) and switch states
+        int id = this.findId(artifactID, category);
+        return id != 0 ? this.voteLists[id] : this.emptyVoteLists.computeIfAbsent(category, VoteList::empty);
+    }
+
+    private int findId(UUID artifactID, ResourceLocation category) {
+        int artifactIndex = this.artifactIndices.getInt(artifactID);
+        if (artifactIndex >= 0) {
+            return this.voteListIDs.get((long) artifactIndex << 32 | VoteCategoryHandler.getIndex(category));
         }
-        return ImmutableList.of();
+        return 0;
     }
 
-    public static Map<UUID, ImmutableList<String>> getAllCommentsFor(VoteDataStorage handler, UUID artifactID) {
-        return Collections.unmodifiableMap(handler.voteComments.row(artifactID));
+    public Optional<VoteList> getVoteList(int id) {
+        this.hydrate(id);
+        return Optional.ofNullable(this.getVoteListDirectly(id));
     }
 
-    public static void putCommentFor(VoteDataStorage handler, UUID artifactID, UUID voterID, List<String> newComments) {
-        if (newComments.isEmpty()) {
-            ImmutableList<String> oldComments = handler.voteComments.remove(artifactID, voterID);
-            if (!Objects.requireNonNullElse(oldComments, ImmutableList.of()).isEmpty()) {
-                handler.emitCommentsAnnouncement(artifactID, voterID, ImmutableList.of());
+    private @Nullable VoteList getVoteListDirectly(int id) {
+        return id > 0 && id < this.voteLists.length ? this.voteLists[id] : null;
+    }
+
+    private void hydrate(int id) {
+        VoteRecordFormat.Block block = this.pendingVotes.remove(id);
+        if (block != null) {
+            List<VoteSynchronizer.Announcement> votes = new ArrayList<>();
+            try {
+                VoteRecordFormat.read(block, votes::add);
+            } catch (IOException e) {
+                VoteMe.LOGGER.error("Failed to read vote records of " + block.artifactID() + " in " + block.categoryID() + ", the rest of them are skipped", e);
             }
+            votes.forEach(this::handle);
+            this.sync.publish(votes);
+        }
+    }
+
+    public VoteLeaderboard getLeaderboard(ResourceLocation category) {
+        int epoch = VoteRoleHandler.getEpoch();
+        if (this.leaderboardsEpoch != epoch) {
+            // roles or categories have been reloaded
+            this.leaderboardsEpoch = epoch;
+            this.leaderboards.clear();
+            this.staleRankings.clear();
+        }
+        // stats may change many times in a tick, so rankings are refreshed on demand
+        for (VoteSynchronizer.VoteDisabledKey key : this.staleRankings) {
+            VoteLeaderboard leaderboard = this.leaderboards.get(key.categoryID());
+            if (leaderboard != null) {
+                this.updateRanking(leaderboard, key.artifactID(), key.categoryID());
+            }
+        }
+        this.staleRankings.clear();
+        return this.leaderboards.computeIfAbsent(category, this::buildLeaderboard);
+    }
+
+    private VoteLeaderboard buildLeaderboard(ResourceLocation category) {
+        VoteLeaderboard leaderboard = new VoteLeaderboard();
+        for (UUID artifactID : this.artifactNames.getUUIDs()) {
+            this.updateRanking(leaderboard, artifactID, category);
+        }
+        return leaderboard;
+    }
+
+    private void updateRanking(VoteLeaderboard leaderboard, UUID artifactID, ResourceLocation category) {
+        VoteList voteList = this.findDirectly(artifactID, category);
+        boolean enabledDefault = VoteCategoryHandler.getCategory(category).filter(c -> c.enabledDefault).isPresent();
+        if (this.artifactNames.getUUIDs().contains(artifactID) && voteList.getEnabled().orElse(enabledDefault)) {
+            leaderboard.put(artifactID, voteList.getFinalScore());
         } else {
-            ImmutableList<String> comments = ImmutableList.copyOf(newComments);
-            ImmutableList<String> oldComments = handler.voteComments.put(artifactID, voterID, comments);
-            if (!comments.equals(Objects.requireNonNullElse(oldComments, ImmutableList.of()))) {
-                handler.emitCommentsAnnouncement(artifactID, voterID, comments);
+            leaderboard.remove(artifactID);
+        }
+    }
+
+    private void markRankingStale(UUID artifactID, ResourceLocation category) {
+        if (this.leaderboards.containsKey(category)) {
+            this.staleRankings.add(new VoteSynchronizer.VoteDisabledKey(artifactID, category));
+        }
+    }
+
+    public CompletableFuture<Table<UUID, ResourceLocation, VoteScoringEngine.Result>> scoreAll() {
+        // only snapshots are taken on the server thread
+        List<VoteScoringEngine.Input> inputs = new ArrayList<>();
+        for (ResourceLocation category : VoteCategoryHandler.getIds()) {
+            boolean enabledDefault = VoteCategoryHandler.getCategory(category).filter(c -> c.enabledDefault).isPresent();
+            for (UUID artifactID : this.artifactNames.getUUIDs()) {
+                VoteList voteList = this.findDirectly(artifactID, category);
+                if (voteList.getEnabled().orElse(enabledDefault)) {
+                    inputs.add(new VoteScoringEngine.Input(artifactID, category, voteList.snapshotStats()));
+                }
+            }
+        }
+        return VoteScoringEngine.score(inputs, VoteRoleHandler.getAllRoles());
+    }
+
+    public CompletableFuture<Integer> export(Path path) {
+        // only snapshots are taken on the server thread, and the file is written in the io pool
+        Instant now = Instant.now();
+        VoteExporter exporter;
+        try {
+            exporter = new VoteExporter(now, VoteRoleHandler.getAllRoles(), this.voteComments.snapshot());
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        for (UUID artifactID : this.artifactNames.getUUIDs()) {
+            List<VoteExporter.VoteListEntry> entries = new ArrayList<>();
+            int artifactIndex = this.artifactIndices.getInt(artifactID);
+            if (artifactIndex >= 0) {
+                for (int id : this.artifactVoteListIDs.get(artifactIndex)) {
+                    VoteList voteList = this.voteLists[id];
+                    ResourceLocation category = voteList.getCategoryID();
+                    boolean enabledDefault = VoteCategoryHandler.getCategory(category).filter(c -> c.enabledDefault).isPresent();
+                    boolean enabled = voteList.getEnabled().orElse(enabledDefault);
+                    entries.add(exporter.snapshot(id, voteList, enabled, this.pendingVotes.get(id)));
+                }
             }
+            String name = this.artifactNames.getName(artifactID), alias = this.artifactNames.getAlias(artifactID);
+            exporter.addArtifact(artifactID, name, alias, entries);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return exporter.write(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, Util.ioPool());
+    }
+
+    public static ImmutableList<String> getCommentFor(VoteDataStorage handler, UUID artifactID, UUID voterID) {
+        return handler.voteComments.get(artifactID, voterID);
+    }
+
+    public static Map<UUID, ImmutableList<String>> getAllCommentsFor(VoteDataStorage handler, UUID artifactID) {
+        return Collections.unmodifiableMap(handler.voteComments.getAll(artifactID));
+    }
+
+    public static void putCommentFor(VoteDataStorage handler, UUID artifactID, UUID voterID, List<String> newComments) {
+        ImmutableList<String> comments = ImmutableList.copyOf(newComments);
+        ImmutableList<String> oldComments = handler.voteComments.get(artifactID, voterID);
+        if (!comments.equals(oldComments)) {
+            handler.voteComments.put(artifactID, voterID, comments);
+            handler.emitCommentsAnnouncement(artifactID, voterID, comments);
         }
     }
 
@@ -207,12 +572,13 @@ public final class VoteDataStorage extends SavedData implements Closeable {
                     .filter(s -> !s.isEmpty()).ifPresent(s -> result.addProperty("alias", s));
             Map<Integer, VoteList> voteLists = new LinkedHashMap<>();
             for (ResourceLocation categoryID : VoteCategoryHandler.getIds()) {
-                int id = this.getIdOrCreate(artifactID, categoryID);
-                Optional<VoteList> entryOptional = this.getVoteList(id);
                 boolean enabledDefault = VoteCategoryHandler
                         .getCategory(categoryID).filter(c -> c.enabledDefault).isPresent();
-                entryOptional.filter(entry -> entry
-                        .getEnabled().orElse(enabledDefault)).ifPresent(entry -> voteLists.put(id, entry));
+                if (this.find(artifactID, categoryID).getEnabled().orElse(enabledDefault)) {
+                    // ids are exposed so vote lists are created for enabled ones
+                    int id = this.getIdOrCreate(artifactID, categoryID);
+                    this.getVoteList(id).ifPresent(entry -> voteLists.put(id, entry));
+                }
             }
             result.add("vote_lists", Util.make(new JsonArray(), array -> voteLists.keySet().forEach(array::add)));
             result.add("vote_comments", Util.make(new JsonArray(), array -> {
@@ -261,6 +627,14 @@ public final class VoteDataStorage extends SavedData implements Closeable {
             e.getAsJsonObject().remove("id");
         }));
 
+        Instant now = Instant.now();
+        int[] activity = voteList.getHourlyActivity(now, VoteActivity.BUCKET_COUNT);
+        jsonObject.add("vote_activity", Util.make(new JsonObject(), e -> {
+            e.addProperty("interval", VoteActivity.BUCKET_SECONDS);
+            e.addProperty("until", now.truncatedTo(ChronoUnit.HOURS).plus(1, ChronoUnit.HOURS).toString());
+            e.add("counts", Util.make(new JsonArray(), array -> Arrays.stream(activity).forEach(array::add)));
+        }));
+
         return jsonObject;
     }
 
@@ -304,36 +678,35 @@ public final class VoteDataStorage extends SavedData implements Closeable {
     }
 
     @SubscribeEvent
-    public static void onServerStopping(ServerStoppingEvent event) {
+    public static void onLevelSave(LevelEvent.Save event) {
+        // fired after all the saved data of the level have been written
+        if (event.getLevel() instanceof ServerLevel level && Level.OVERWORLD.equals(level.dimension())) {
+            VoteDataStorage.get(level.getServer()).checkpoint();
+        }
+    }
+
+    @SubscribeEvent
+    public static void onServerStopped(ServerStoppedEvent event) {
+        // the final save (including its checkpoint) is written after the server starts stopping, so everything is
+        // closed after it, and the writer is closed first so that the log is still open for queued checkpoints
+        VoteDataStorage storage = VoteDataStorage.get(event.getServer());
+        storage.writer.close();
         try {
-            VoteDataStorage.get(event.getServer()).close();
+            storage.close();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        VoteList.clearRoleSets();
     }
 
     public void load(CompoundTag nbt) {
         VoteMe.LOGGER.info("Loading vote list data on server ...");
 
-        // vote list next index and index hints
+        // vote list next index
         this.nextIndex = Math.max(this.nextIndex, nbt.getInt("VoteListNextIndex"));
 
-        ListTag hintTags = nbt.getList("VoteListIndexHints", Tag.TAG_COMPOUND);
-        for (Tag tag : hintTags) {
-            CompoundTag child = (CompoundTag) tag;
-            int hint = child.contains("VoteListIndex", Tag.TAG_INT) ? child.getInt("VoteListIndex") : this.nextIndex;
-            this.getIdOrCreate(child.getUUID("ArtifactUUID"), new ResourceLocation(child.getString("Category")), hint);
-        }
-
-        // announcements
-        ListTag announcementTags = nbt.getList("VoteAnnouncements", Tag.TAG_COMPOUND);
-        for (Tag tag : announcementTags) {
-            Optional<VoteSynchronizer.Announcement> optional = deserialize((CompoundTag) tag);
-            if (optional.isPresent()) {
-                this.handle(optional.get());
-                this.sync.publish(List.of(optional.get()));
-            }
-        }
+        // index hints and announcements (which were saved in the main data before sharding)
+        int loadedSize = this.loadAnnouncements(nbt);
 
         /* * * * * * * * LEGACY PART START * * * * * * * */
 
@@ -344,7 +717,7 @@ public final class VoteDataStorage extends SavedData implements Closeable {
             VoteSynchronizer.VoteDisabledKey key = VoteList.deserializeKey(child);
             int hint = child.contains("VoteListIndex", Tag.TAG_INT) ? child.getInt("VoteListIndex") : this.nextIndex;
             int id = this.getIdOrCreate(key.artifactID(), key.categoryID(), hint);
-            this.voteLists.get(id).loadLegacyNBT(child);
+            this.voteLists[id].loadLegacyNBT(child);
         }
 
         // artifacts
@@ -358,11 +731,7 @@ public final class VoteDataStorage extends SavedData implements Closeable {
             for (String voterID : allComments.getAllKeys()) {
                 ImmutableList<String> comments = allComments.getList(voterID, Tag.TAG_STRING)
                         .stream().map(Tag::getAsString).collect(ImmutableList.toImmutableList());
-                if (comments.isEmpty()) {
-                    this.voteComments.put(UUID.fromString(artifactID), UUID.fromString(voterID), comments);
-                } else {
-                    this.voteComments.remove(UUID.fromString(artifactID), UUID.fromString(voterID));
-                }
+                this.voteComments.put(UUID.fromString(artifactID), UUID.fromString(voterID), comments);
                 commentsSize += 1;
                 this.emitCommentsAnnouncement(UUID.fromString(artifactID), UUID.fromString(voterID), comments);
             }
@@ -370,7 +739,7 @@ public final class VoteDataStorage extends SavedData implements Closeable {
 
         /* * * * * * * * LEGACY PART FINISH * * * * * * * */
 
-        int size = 1 + hintTags.size() + announcementTags.size();
+        int size = 1 + loadedSize;
         int legacySize = lists.size() + loadedArtifactSize + commentsSize;
         if (legacySize > 0) {
             VoteMe.LOGGER.info("Loaded {} data and {} legacy data on server.", size, legacySize);
@@ -379,41 +748,173 @@ public final class VoteDataStorage extends SavedData implements Closeable {
         }
     }
 
-    @Override
-    public CompoundTag save(CompoundTag nbt) {
-        VoteMe.LOGGER.info("Saving vote list data on server ...");
+    void loadShard(VoteDataShard shard, CompoundTag nbt) {
+        int loadedSize = this.loadAnnouncements(nbt);
+        VoteMe.LOGGER.info("Loaded {} data from {} on server.", loadedSize, shard.getName());
+    }
 
-        // vote list next index and index hints
-        nbt.putInt("VoteListNextIndex", this.nextIndex);
+    private int loadAnnouncements(CompoundTag nbt) {
+        // index hints
+        ListTag hintTags = nbt.getList("VoteListIndexHints", Tag.TAG_COMPOUND);
+        for (Tag tag : hintTags) {
+            CompoundTag child = (CompoundTag) tag;
+            int hint = child.contains("VoteListIndex", Tag.TAG_INT) ? child.getInt("VoteListIndex") : this.nextIndex;
+            this.getIdOrCreate(child.getUUID("ArtifactUUID"), new ResourceLocation(child.getString("Category")), hint);
+        }
 
-        ListTag hintTags = new ListTag();
-        for (Int2ObjectMap.Entry<VoteList> entry : this.voteLists.int2ObjectEntrySet()) {
-            CompoundTag child = new CompoundTag();
-            child.putInt("VoteListIndex", entry.getIntKey());
-            child.putUUID("ArtifactUUID", entry.getValue().getArtifactID());
-            child.putString("Category", entry.getValue().getCategoryID().toString());
-            hintTags.add(child);
+        // announcements (including votes saved before the compact format)
+        // decoding is independent so large lists are decoded in parallel, then applied in order
+        ListTag announcementTags = nbt.getList("VoteAnnouncements", Tag.TAG_COMPOUND);
+        IntStream indices = IntStream.range(0, announcementTags.size());
+        if (announcementTags.size() >= PARALLEL_DECODING_THRESHOLD) {
+            indices = indices.parallel();
+        }
+        List<Optional<VoteSynchronizer.Announcement>> decoded = indices
+                .mapToObj(i -> deserialize(announcementTags.getCompound(i))).toList();
+        decoded.forEach(optional -> optional.ifPresent(this::loadAnnouncement));
+
+        // votes (which are loaded on first access, except for records in old versions)
+        int voteRecordSize = 0;
+        if (nbt.contains("VoteRecords", Tag.TAG_BYTE_ARRAY)) {
+            byte[] voteRecords = nbt.getByteArray("VoteRecords");
+            try {
+                Optional<List<VoteRecordFormat.Block>> blocks = VoteRecordFormat.index(voteRecords);
+                if (blocks.isPresent()) {
+                    for (VoteRecordFormat.Block block : blocks.get()) {
+                        int id = this.getIdOrCreate(block.artifactID(), block.categoryID());
+                        this.hydrate(id);
+                        this.pendingVotes.put(id, block);
+                        // stats were not saved in old versions, so they are rebuilt from votes
+                        if (this.voteLists[id].snapshotStats().isEmpty()) {
+                            this.hydrate(id);
+                        }
+                    }
+                    voteRecordSize = blocks.get().size();
+                } else {
+                    voteRecordSize = VoteRecordFormat.read(new ByteArrayInputStream(voteRecords), this::loadAnnouncement);
+                }
+            } catch (IOException e) {
+                VoteMe.LOGGER.error("Failed to read vote records, the rest of them are skipped", e);
+            }
         }
-        nbt.put("VoteListIndexHints", hintTags);
 
-        // announcements
-        ListTag announcementTags = new ListTag();
-        List<VoteSynchronizer.Announcement> announcements = new ArrayList<>();
-        this.artifactNames.buildAnnouncements(announcements);
-        for (Table.Cell<UUID, UUID, ImmutableList<String>> e : this.voteComments.cellSet()) {
-            VoteSynchronizer.CommentsKey key = new VoteSynchronizer.CommentsKey(e.getRowKey(), e.getColumnKey());
-            announcements.add(new VoteSynchronizer.Comments(key, e.getValue()));
+        return hintTags.size() + announcementTags.size() + voteRecordSize;
+    }
+
+    private void loadAnnouncement(VoteSynchronizer.Announcement announcement) {
+        // only announcements which are not in the saved data yet (such as replayed ones) make it dirty
+        if (this.handle(announcement)) {
+            this.markDirty(announcement);
+        }
+        // stats are rebuilt by synchronizers from votes, so only votes are published
+        if (!(announcement instanceof VoteSynchronizer.VoteStats)) {
+            this.sync.publish(List.of(announcement));
         }
-        this.voteLists.values().forEach(v -> v.buildAnnouncements(announcements));
-        announcements.forEach(announcement -> serialize(announcement).ifPresent(announcementTags::add));
-        nbt.put("VoteAnnouncements", announcementTags);
+    }
 
-        VoteMe.LOGGER.info("Saved {} data on server.", 1 + hintTags.size() + announcementTags.size());
+    @Override
+    public void save(File file) {
+        if (this.isDirty()) {
+            this.writer.write(this, file, this.snapshot());
+            this.setDirty(false);
+        }
+    }
+
+    @Override
+    public CompoundTag save(CompoundTag nbt) {
+        this.snapshot().accept(nbt);
         return nbt;
     }
 
+    private Consumer<CompoundTag> snapshot() {
+        // announcements are immutable so that they could be serialized off the server thread
+        int nextIndex = this.nextIndex;
+        List<VoteSynchronizer.Announcement> announcements = new ArrayList<>();
+        this.artifactNames.buildAnnouncements(announcements);
+        return nbt -> {
+            VoteMe.LOGGER.info("Saving vote list data on server ...");
+
+            // vote list next index
+            nbt.putInt("VoteListNextIndex", nextIndex);
+
+            // artifact announcements (others are saved in shards)
+            ListTag announcementTags = new ListTag();
+            announcements.forEach(announcement -> serialize(announcement).ifPresent(announcementTags::add));
+            nbt.put("VoteAnnouncements", announcementTags);
+
+            VoteMe.LOGGER.info("Saved {} data on server.", 1 + announcementTags.size());
+        };
+    }
+
+    Consumer<CompoundTag> snapshotShard(VoteDataShard shard) {
+        // announcements are immutable so that they could be serialized off the server thread
+        // empty vote lists are also saved, since their ids may have been exposed
+        Int2ObjectMap<VoteList> voteLists = new Int2ObjectLinkedOpenHashMap<>(shard.getVoteLists());
+        List<VoteRecordFormat.Block> pendingBlocks = new ArrayList<>();
+        List<VoteSynchronizer.Announcement> announcements = new ArrayList<>();
+        voteLists.values().forEach(v -> v.buildAnnouncements(announcements));
+        voteLists.keySet().forEach((int id) -> {
+            VoteRecordFormat.Block block = this.pendingVotes.get(id);
+            if (block != null) {
+                pendingBlocks.add(block);
+            }
+        });
+        return nbt -> {
+            // index hints
+            ListTag hintTags = new ListTag();
+            for (Int2ObjectMap.Entry<VoteList> entry : voteLists.int2ObjectEntrySet()) {
+                CompoundTag child = new CompoundTag();
+                child.putInt("VoteListIndex", entry.getIntKey());
+                child.putUUID("ArtifactUUID", entry.getValue().getArtifactID());
+                child.putString("Category", entry.getValue().getCategoryID().toString());
+                hintTags.add(child);
+            }
+            nbt.put("VoteListIndexHints", hintTags);
+
+            // announcements (votes are saved in a compact format)
+            int voteRecordSize = 0;
+            ListTag announcementTags = new ListTag();
+            ByteArrayOutputStream voteRecords = new ByteArrayOutputStream();
+            try {
+                VoteRecordFormat.Writer voteRecordWriter = new VoteRecordFormat.Writer(voteRecords);
+                for (VoteSynchronizer.Announcement announcement : announcements) {
+                    if (announcement instanceof VoteSynchronizer.Vote vote) {
+                        voteRecordWriter.write(vote);
+                        voteRecordSize += 1;
+                    } else {
+                        serialize(announcement).ifPresent(announcementTags::add);
+                    }
+                }
+                // votes which have not been loaded are copied as is
+                for (VoteRecordFormat.Block block : pendingBlocks) {
+                    voteRecordWriter.write(block);
+                }
+                voteRecordWriter.finish();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            nbt.put("VoteAnnouncements", announcementTags);
+            nbt.putByteArray("VoteRecords", voteRecords.toByteArray());
+
+            int size = hintTags.size() + announcementTags.size() + voteRecordSize;
+            VoteMe.LOGGER.info("Saved {} data to {} on server.", size, shard.getName());
+        };
+    }
+
+    VoteDataWriter getWriter() {
+        return this.writer;
+    }
+
+    private void checkpoint() {
+        this.voteComments.compactIfNeeded();
+        long generation = this.log.rotate();
+        this.writer.barrier(() -> this.log.checkpoint(generation));
+    }
+
     @Override
     public void close() throws IOException {
         this.sync.close();
+        this.log.close();
+        this.voteComments.close();
     }
 }
@@ -0,0 +1,91 @@
+package org.teacon.voteme.vote;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.Util;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtUtils;
+import net.minecraft.server.MinecraftServer;
+import net.minecraft.world.level.saveddata.SavedData;
+import org.teacon.voteme.VoteMe;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class VoteDataWriter implements Closeable {
+    private final MinecraftServer server;
+    private final ExecutorService executor;
+    // only accessed in the writer thread
+    private final Set<File> failedFiles = new HashSet<>();
+
+    VoteDataWriter(MinecraftServer server) {
+        this.server = server;
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("VoteMe Data Writer").setDaemon(true).build());
+    }
+
+    public void write(SavedData data, File file, Consumer<CompoundTag> snapshot) {
+        CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+            try {
+                CompoundTag root = new CompoundTag();
+                root.put("data", Util.make(new CompoundTag(), snapshot));
+                NbtUtils.addCurrentDataVersion(root);
+                File tmp = new File(file.getPath() + ".tmp");
+                NbtIo.writeCompressed(root, tmp);
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                this.failedFiles.remove(file);
+            } catch (IOException | RuntimeException e) {
+                VoteMe.LOGGER.error("Could not save vote data to " + file, e);
+                this.failedFiles.add(file);
+                // the dirty flag has been cleared when the write was queued, so it is set again to retry
+                this.server.execute(data::setDirty);
+            }
+        }, this.executor);
+        this.awaitIfStopping(future);
+    }
+
+    public void barrier(Runnable onSucceed) {
+        CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+            // checkpoints are skipped until all the failed files have been written again
+            if (this.failedFiles.isEmpty()) {
+                onSucceed.run();
+            }
+        }, this.executor);
+        this.awaitIfStopping(future);
+    }
+
+    @Override
+    public void close() {
+        // writes which have been queued are still finished before the thread exits
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(1L, TimeUnit.MINUTES)) {
+                VoteMe.LOGGER.error("Timed out while waiting for vote data to be written");
+            }
+        } catch (InterruptedException e) {
+            VoteMe.LOGGER.error("Interrupted while waiting for vote data to be written", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void awaitIfStopping(CompletableFuture<Void> future) {
+        // the process may exit right after the final save
+        if (!this.server.isRunning()) {
+            future.join();
+        }
+    }
+}
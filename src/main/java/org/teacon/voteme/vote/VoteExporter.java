@@ -0,0 +1,228 @@
+package org.teacon.voteme.vote;
+
+import com.google.common.primitives.ImmutableIntArray;
+import com.google.gson.stream.JsonWriter;
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.resources.ResourceLocation;
+import org.teacon.voteme.roles.VoteRole;
+import org.teacon.voteme.sync.VoteSynchronizer.Vote;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.function.Consumer;
+
+/*
+ * Exported file format (json, written as a stream):
+ *
+ * {
+ *   "exported_at": "2024-01-01T00:00:00Z",
+ *   "artifacts": [
+ *     {
+ *       "id": artifact uuid, "name": name, "alias": alias (optional),
+ *       "vote_lists": [
+ *         {
+ *           "id": vote list id, "category": category id, "enabled": boolean,
+ *           "vote_stats": { same as the http api },
+ *           "vote_activity": { same as the http api },
+ *           "votes": [ { "voter": voter uuid, "level": 1 to 5, "roles": [ role ids ], "time": iso instant } ]
+ *         }
+ *       ],
+ *       "vote_comments": [ { "voter": voter uuid, "texts": [ comments ] } ]
+ *     }
+ *   ]
+ * }
+ *
+ * Everything except comment texts and votes not loaded yet is snapshot on the server thread. Comments are read from
+ * the file in which records are never modified once appended, and votes not loaded yet (with their activity) are
+ * decoded from their immutable blocks. The file is written somewhere else and then moved to its destination.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class VoteExporter {
+    private final Instant now;
+    private final Map<ResourceLocation, VoteRole> roles;
+    private final VoteCommentStore.Snapshot comments;
+    private final List<ArtifactEntry> artifacts = new ArrayList<>();
+
+    VoteExporter(Instant now, Map<ResourceLocation, VoteRole> roles, VoteCommentStore.Snapshot comments) {
+        this.now = now;
+        this.roles = roles;
+        this.comments = comments;
+    }
+
+    public void addArtifact(UUID artifactID, String name, String alias, List<VoteListEntry> voteLists) {
+        this.artifacts.add(new ArtifactEntry(artifactID, name, alias, voteLists));
+    }
+
+    public VoteListEntry snapshot(int id, VoteList voteList, boolean enabled, @Nullable VoteRecordFormat.Block block) {
+        if (block != null) {
+            // pending votes are decoded while writing, since blocks are never modified
+            VoteSource votes = consumer -> VoteRecordFormat.read(block, consumer);
+            ActivitySource activity = () -> collectActivity(block, this.now);
+            return new VoteListEntry(id, voteList.getCategoryID(), enabled, voteList.snapshotStats(), activity, votes);
+        }
+        int[] activity = voteList.getHourlyActivity(this.now, VoteActivity.BUCKET_COUNT);
+        VoteSource votes = voteList.snapshotVotes()::accept;
+        return new VoteListEntry(id, voteList.getCategoryID(), enabled, voteList.snapshotStats(), () -> activity, votes);
+    }
+
+    public int write(Path path) throws IOException {
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (this.comments; JsonWriter writer = new JsonWriter(Files.newBufferedWriter(tmpPath, StandardCharsets.UTF_8))) {
+            writer.beginObject();
+            writer.name("exported_at").value(this.now.toString());
+            writer.name("artifacts").beginArray();
+            for (ArtifactEntry artifact : this.artifacts) {
+                this.writeArtifact(writer, artifact);
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return this.artifacts.size();
+    }
+
+    private void writeArtifact(JsonWriter writer, ArtifactEntry artifact) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(artifact.artifactID().toString());
+        writer.name("name").value(artifact.name());
+        if (!artifact.alias().isEmpty()) {
+            writer.name("alias").value(artifact.alias());
+        }
+        writer.name("vote_lists").beginArray();
+        for (VoteListEntry voteList : artifact.voteLists()) {
+            this.writeVoteList(writer, voteList);
+        }
+        writer.endArray();
+        writer.name("vote_comments").beginArray();
+        this.comments.forEach(artifact.artifactID(), (voterID, texts) -> {
+            if (!texts.isEmpty()) {
+                writer.beginObject();
+                writer.name("voter").value(voterID.toString());
+                writer.name("texts").beginArray();
+                for (String text : texts) {
+                    writer.value(text);
+                }
+                writer.endArray();
+                writer.endObject();
+            }
+        });
+        writer.endArray();
+        writer.endObject();
+    }
+
+    private void writeVoteList(JsonWriter writer, VoteListEntry voteList) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(voteList.id());
+        writer.name("category").value(voteList.categoryID().toString());
+        writer.name("enabled").value(voteList.enabled());
+
+        SortedMap<String, VoteList.Stats> scores = VoteList.buildStatsMap(this.roles, voteList.categoryID(), voteList.stats());
+        VoteList.Stats combined = VoteList.Stats.combine(scores.values(), VoteList.Stats::getWeight);
+        float defaultScore = combined.getFinalScore(6.0F);
+        writer.name("vote_stats").beginObject();
+        writeStats(writer, combined, defaultScore);
+        writer.name("subgroups").beginArray();
+        for (Map.Entry<String, VoteList.Stats> entry : scores.entrySet()) {
+            writer.beginObject();
+            writer.name("id").value(entry.getKey());
+            writeStats(writer, entry.getValue(), defaultScore);
+            writer.endObject();
+        }
+        writer.endArray();
+        writer.endObject();
+
+        writer.name("vote_activity").beginObject();
+        writer.name("interval").value(VoteActivity.BUCKET_SECONDS);
+        writer.name("until").value(this.now.truncatedTo(ChronoUnit.HOURS).plus(1, ChronoUnit.HOURS).toString());
+        writer.name("counts").beginArray();
+        for (int count : voteList.activity().collect()) {
+            writer.value(count);
+        }
+        writer.endArray();
+        writer.endObject();
+
+        writer.name("votes").beginArray();
+        try {
+            voteList.votes().forEach(vote -> {
+                try {
+                    writeVote(writer, vote);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    private static int[] collectActivity(VoteRecordFormat.Block block, Instant now) throws IOException {
+        // only the latest vote of each voter is counted, which is what vote lists do after votes are loaded
+        Map<UUID, Instant> times = new HashMap<>();
+        VoteRecordFormat.read(block, vote -> times.merge(vote.key().voterID(), vote.time(), (a, b) -> b.isAfter(a) ? b : a));
+        VoteActivity activity = new VoteActivity();
+        times.values().forEach(activity::record);
+        return activity.collect(now, VoteActivity.BUCKET_COUNT);
+    }
+
+    private static void writeStats(JsonWriter writer, VoteList.Stats stats, float defaultScore) throws IOException {
+        writer.name("score").value(stats.getFinalScore(defaultScore));
+        writer.name("weight").value(stats.getWeight());
+        writer.name("counts").beginObject();
+        for (int i = 1; i <= 5; ++i) {
+            writer.name(Integer.toString(i)).value(stats.getVoteCount(i));
+        }
+        writer.name("sum").value(stats.getVoteCount());
+        writer.name("effective").value(stats.getEffectiveCount());
+        writer.endObject();
+    }
+
+    private static void writeVote(JsonWriter writer, Vote vote) throws IOException {
+        if (vote.level() > 0) {
+            writer.beginObject();
+            writer.name("voter").value(vote.key().voterID().toString());
+            writer.name("level").value(vote.level());
+            writer.name("roles").beginArray();
+            for (ResourceLocation roleID : vote.roles()) {
+                writer.value(roleID.toString());
+            }
+            writer.endArray();
+            writer.name("time").value(vote.time().toString());
+            writer.endObject();
+        }
+    }
+
+    @FunctionalInterface
+    @MethodsReturnNonnullByDefault
+    @ParametersAreNonnullByDefault
+    interface VoteSource {
+        void forEach(Consumer<? super Vote> consumer) throws IOException;
+    }
+
+    @FunctionalInterface
+    @MethodsReturnNonnullByDefault
+    @ParametersAreNonnullByDefault
+    interface ActivitySource {
+        int[] collect() throws IOException;
+    }
+
+    private record ArtifactEntry(UUID artifactID, String name, String alias, List<VoteListEntry> voteLists) {
+        // nothing here
+    }
+
+    record VoteListEntry(int id, ResourceLocation categoryID, boolean enabled,
+                         Map<ResourceLocation, ImmutableIntArray> stats, ActivitySource activity, VoteSource votes) {
+        // nothing here
+    }
+}
@@ -0,0 +1,191 @@
+package org.teacon.voteme.vote;
+
+import com.google.common.base.Preconditions;
+import it.unimi.dsi.fastutil.HashCommon;
+import net.minecraft.MethodsReturnNonnullByDefault;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.*;
+
+/*
+ * Artifacts of a category ordered by final scores (descending) and then by artifact ids.
+ *
+ * It is a treap whose nodes are augmented with subtree sizes, so that ranks and ranges could be queried in O(log n).
+ * Priorities are derived from artifact ids, which keeps the shape deterministic.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public final class VoteLeaderboard {
+    private @Nullable Node root;
+    private final Map<UUID, Node> nodes = new HashMap<>();
+
+    public int size() {
+        return this.nodes.size();
+    }
+
+    public void put(UUID artifactID, float score) {
+        Node oldNode = this.nodes.get(artifactID);
+        if (oldNode != null) {
+            if (Float.compare(oldNode.score, score) == 0) {
+                return;
+            }
+            this.root = remove(this.root, oldNode);
+        }
+        Node node = new Node(artifactID, score);
+        this.nodes.put(artifactID, node);
+        this.root = insert(this.root, node);
+    }
+
+    public void remove(UUID artifactID) {
+        Node oldNode = this.nodes.remove(artifactID);
+        if (oldNode != null) {
+            this.root = remove(this.root, oldNode);
+        }
+    }
+
+    public Optional<Float> getScore(UUID artifactID) {
+        return Optional.ofNullable(this.nodes.get(artifactID)).map(n -> n.score);
+    }
+
+    public OptionalInt getRank(UUID artifactID) {
+        Node target = this.nodes.get(artifactID);
+        if (target == null) {
+            return OptionalInt.empty();
+        }
+        int rank = 0;
+        for (Node node = this.root; node != null; ) {
+            int result = compare(target, node);
+            if (result == 0) {
+                return OptionalInt.of(rank + size(node.left));
+            }
+            if (result < 0) {
+                node = node.left;
+            } else {
+                rank += size(node.left) + 1;
+                node = node.right;
+            }
+        }
+        throw new IllegalStateException("artifact " + artifactID + " is not in the tree");
+    }
+
+    public List<Entry> top(int count) {
+        return this.range(0, count);
+    }
+
+    public List<Entry> range(int fromRank, int toRank) {
+        Preconditions.checkArgument(fromRank >= 0 && fromRank <= toRank, "invalid rank range");
+        List<Entry> result = new ArrayList<>(Math.max(0, Math.min(toRank, this.size()) - fromRank));
+        collect(this.root, fromRank, toRank, 0, result);
+        return result;
+    }
+
+    private static void collect(@Nullable Node node, int fromRank, int toRank, int offset, List<Entry> result) {
+        // offset is the rank of the first node in the subtree
+        if (node != null && fromRank < offset + node.size && toRank > offset) {
+            int rank = offset + size(node.left);
+            collect(node.left, fromRank, toRank, offset, result);
+            if (rank >= fromRank && rank < toRank) {
+                result.add(new Entry(node.artifactID, node.score));
+            }
+            collect(node.right, fromRank, toRank, rank + 1, result);
+        }
+    }
+
+    private static Node insert(@Nullable Node root, Node node) {
+        if (root == null) {
+            return node;
+        }
+        if (node.priority > root.priority) {
+            Node[] parts = new Node[2];
+            split(root, node, parts);
+            node.left = parts[0];
+            node.right = parts[1];
+            return update(node);
+        }
+        if (compare(node, root) < 0) {
+            root.left = insert(root.left, node);
+        } else {
+            root.right = insert(root.right, node);
+        }
+        return update(root);
+    }
+
+    private static @Nullable Node remove(@Nullable Node root, Node node) {
+        if (root == null) {
+            return null;
+        }
+        int result = compare(node, root);
+        if (result == 0) {
+            return merge(root.left, root.right);
+        }
+        if (result < 0) {
+            root.left = remove(root.left, node);
+        } else {
+            root.right = remove(root.right, node);
+        }
+        return update(root);
+    }
+
+    private static void split(@Nullable Node root, Node node, Node[] parts) {
+        if (root == null) {
+            parts[0] = parts[1] = null;
+        } else if (compare(root, node) < 0) {
+            split(root.right, node, parts);
+            root.right = parts[0];
+            parts[0] = update(root);
+        } else {
+            split(root.left, node, parts);
+            root.left = parts[1];
+            parts[1] = update(root);
+        }
+    }
+
+    private static @Nullable Node merge(@Nullable Node left, @Nullable Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return update(left);
+        }
+        right.left = merge(left, right.left);
+        return update(right);
+    }
+
+    private static Node update(Node node) {
+        node.size = size(node.left) + 1 + size(node.right);
+        return node;
+    }
+
+    private static int size(@Nullable Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static int compare(Node a, Node b) {
+        int result = Float.compare(b.score, a.score);
+        return result != 0 ? result : a.artifactID.compareTo(b.artifactID);
+    }
+
+    public record Entry(UUID artifactID, float score) {
+        // nothing here
+    }
+
+    private static final class Node {
+        private final UUID artifactID;
+        private final float score;
+        private final int priority;
+        private int size = 1;
+        private @Nullable Node left;
+        private @Nullable Node right;
+
+        private Node(UUID artifactID, float score) {
+            this.artifactID = artifactID;
+            this.score = score;
+            this.priority = HashCommon.mix(artifactID.hashCode());
+        }
+    }
+}
@@ -1,18 +1,23 @@
 package org.teacon.voteme.vote;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.ListMultimap;
 import com.google.common.primitives.ImmutableIntArray;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2LongMap;
+import it.unimi.dsi.fastutil.objects.Object2LongMaps;
+import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
 import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.Util;
 import net.minecraft.nbt.CompoundTag;
 import net.minecraft.nbt.ListTag;
 import net.minecraft.nbt.Tag;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.level.ServerPlayer;
 import net.minecraft.util.Mth;
-import org.apache.commons.lang3.tuple.Triple;
 import org.teacon.voteme.roles.VoteRole;
 import org.teacon.voteme.roles.VoteRoleHandler;
 import org.teacon.voteme.sync.VoteSynchronizer.Announcement;
@@ -24,45 +29,98 @@ import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.time.Instant;
 import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.function.Consumer;
 
 import static org.teacon.voteme.sync.VoteSynchronizer.VoteKey;
 import static org.teacon.voteme.sync.VoteSynchronizer.VoteStats;
+import static org.teacon.voteme.sync.VoteSynchronizer.VoteStatsKey;
 
 @MethodsReturnNonnullByDefault
 @ParametersAreNonnullByDefault
 public final class VoteList {
+    // noinspection UnstableApiUsage
+    private static final ImmutableIntArray ZEROS = ImmutableIntArray.of(0, 0, 0, 0, 0, 0);
+
     public static final Instant DEFAULT_VOTE_TIME = DateTimeFormatter.RFC_1123_DATE_TIME.parse("Sat, 9 Jan 2021 02:00:00 +0800", Instant::from);
 
     private @Nullable Boolean enabled;
+    private boolean queued;
+    private int delayedEpoch;
+    private final boolean immutable;
 
     private final VoteDisabledKey key;
+    private final Listener listener;
     private final Queue<Announcement> queuedAnnouncements;
     private final SortedMap<String, Stats> delayedCachedScores;
+    private final Set<String> delayedDirtySubgroups;
+    private final Map<ResourceLocation, ParticipationScore[]> delayedRoleScores;
+    private final SortedMap<String, Stats.Accumulator> delayedSubgroupScores;
+    private final Stats.Accumulator delayedFinalScore;
     private final Map<ResourceLocation, ImmutableIntArray> delayedStatsMap;
-    private final Map<UUID, Triple<Integer, ImmutableSet<ResourceLocation>, Instant>> votes;
+    private final Object2LongMap<UUID> votes;
+    private final Map<UUID, Vote> unpackedVotes;
+    private @Nullable VoteActivity activity;
+
+    public VoteList(UUID artifactID, ResourceLocation categoryID, Listener listener) {
+        this(artifactID, categoryID, listener, false);
+    }
 
-    public VoteList(UUID artifactID, ResourceLocation categoryID) {
+    private VoteList(UUID artifactID, ResourceLocation categoryID, Listener listener, boolean immutable) {
         this.enabled = null;
-        this.votes = new HashMap<>();
+        this.queued = false;
+        this.delayedEpoch = -1;
+        this.immutable = immutable;
+        this.listener = listener;
+        this.votes = new Object2LongOpenHashMap<>();
+        this.unpackedVotes = new HashMap<>();
         this.delayedStatsMap = new HashMap<>();
         this.delayedCachedScores = new TreeMap<>();
+        this.delayedDirtySubgroups = new HashSet<>();
+        this.delayedRoleScores = new LinkedHashMap<>();
+        this.delayedSubgroupScores = new TreeMap<>();
+        this.delayedFinalScore = new Stats.Accumulator();
         this.queuedAnnouncements = new ArrayDeque<>();
         this.key = new VoteDisabledKey(artifactID, categoryID);
     }
 
-    public void publish(Announcement announcement) {
+    public static VoteList empty(ResourceLocation categoryID) {
+        // shared by all the artifacts so the artifact id is nil
+        return new VoteList(Util.NIL_UUID, categoryID, new Listener() {
+            @Override
+            public void onQueued(VoteList voteList) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void onEnabledChanged(VoteList voteList, Optional<Boolean> oldEnabled) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void onStatsChanged(VoteList voteList) {
+                throw new UnsupportedOperationException();
+            }
+        }, true);
+    }
+
+    private void checkMutable() {
+        if (this.immutable) {
+            throw new UnsupportedOperationException("empty vote list of " + this.key.categoryID() + " is immutable");
+        }
+    }
+
+    public boolean publish(Announcement announcement) {
+        this.checkMutable();
         if (announcement instanceof VoteStats voteStats) {
-            this.handleVoteStatsAnnouncement(voteStats);
-            return;
+            return this.handleVoteStatsAnnouncement(voteStats);
         }
         if (announcement instanceof Vote vote) {
-            this.handleVoteAnnouncement(vote);
-            return;
+            return this.handleVoteAnnouncement(vote);
         }
         if (announcement instanceof VoteDisabled voteDisabled) {
-            this.handleVoteDisabledAnnouncement(voteDisabled);
-            return;
+            return this.handleVoteDisabledAnnouncement(voteDisabled);
         }
         throw new IllegalArgumentException("unsupported announcement type: " + announcement.getClass());
     }
@@ -70,46 +128,135 @@ public final class VoteList {
     public void dequeue(Collection<? super Announcement> drainTo) {
         drainTo.addAll(this.queuedAnnouncements);
         this.queuedAnnouncements.clear();
+        this.queued = false;
+    }
+
+    private void enqueue(Announcement announcement) {
+        this.queuedAnnouncements.offer(announcement);
+        if (!this.queued) {
+            this.queued = true;
+            this.listener.onQueued(this);
+        }
     }
 
-    private void handleVoteStatsAnnouncement(VoteStats voteStats) {
+    private boolean handleVoteStatsAnnouncement(VoteStats voteStats) {
         Preconditions.checkArgument(this.key.artifactID().equals(voteStats.key().artifactID()), "wrong artifact id");
         Preconditions.checkArgument(this.key.categoryID().equals(voteStats.key().categoryID()), "wrong category id");
         // noinspection UnstableApiUsage
         ImmutableIntArray oldCounts = this.delayedStatsMap.put(voteStats.key().roleID(), voteStats.counts());
         // noinspection UnstableApiUsage
         if (!voteStats.counts().equals(oldCounts)) {
-            this.delayedCachedScores.clear();
+            // only subgroups which the role participates in are affected
+            ParticipationScore[] roleScores = this.delayedRoleScores.get(voteStats.key().roleID());
+            if (roleScores != null) {
+                for (ParticipationScore roleScore : roleScores) {
+                    roleScore.update(voteStats.counts());
+                    this.delayedDirtySubgroups.add(roleScore.subgroup);
+                }
+            }
+            this.listener.onStatsChanged(this);
+            return true;
         }
+        return false;
     }
 
-    private void handleVoteAnnouncement(Vote vote) {
+    private boolean handleVoteAnnouncement(Vote vote) {
         Preconditions.checkArgument(this.key.artifactID().equals(vote.key().artifactID()), "wrong artifact id");
         Preconditions.checkArgument(this.key.categoryID().equals(vote.key().categoryID()), "wrong category id");
         UUID voterID = vote.key().voterID();
-        if (!this.votes.containsKey(voterID) || !vote.time().isBefore(this.votes.get(voterID).getRight())) {
+        Optional<Instant> time = this.getTime(voterID);
+        if (time.isEmpty() || !vote.time().isBefore(time.get())) {
             if (vote.level() != 0) {
-                this.votes.put(voterID, Triple.of(vote.level(), vote.roles(), vote.time()));
-            } else {
-                this.votes.remove(voterID);
+                // votes coming back from synchronizers are the same as the current ones
+                boolean same = time.isPresent() && vote.time().equals(time.get())
+                        && vote.level() == this.get(voterID) && vote.roles().equals(this.getRoles(voterID));
+                if (!same) {
+                    this.putVote(voterID, vote.level(), vote.roles(), vote.time());
+                }
+                return !same;
             }
+            return this.removeVote(voterID);
         }
+        return false;
     }
 
-    private void handleVoteDisabledAnnouncement(VoteDisabled voteDisabled) {
+    private boolean handleVoteDisabledAnnouncement(VoteDisabled voteDisabled) {
         Preconditions.checkArgument(this.key.artifactID().equals(voteDisabled.key().artifactID()), "wrong artifact id");
         Preconditions.checkArgument(this.key.categoryID().equals(voteDisabled.key().categoryID()), "wrong category id");
-        this.enabled = voteDisabled.disabled().map(a -> !a).orElse(null);
+        return this.updateEnabled(voteDisabled.disabled().map(a -> !a).orElse(null));
     }
 
-    private void emitVoteAnnouncement(UUID uuid, Triple<Integer, ImmutableSet<ResourceLocation>, Instant> triple) {
-        VoteKey key = new VoteKey(this.key.artifactID(), this.key.categoryID(), uuid);
-        this.queuedAnnouncements.offer(new Vote(key, triple.getLeft(), triple.getMiddle(), triple.getRight()));
+    private boolean updateEnabled(@Nullable Boolean enabled) {
+        if (this.enabled != enabled) {
+            Optional<Boolean> oldEnabled = Optional.ofNullable(this.enabled);
+            this.enabled = enabled;
+            this.listener.onEnabledChanged(this, oldEnabled);
+            return true;
+        }
+        return false;
+    }
+
+    private void emitVoteAnnouncement(Vote vote) {
+        this.enqueue(vote);
+    }
+
+    private void putVote(UUID uuid, int level, ImmutableSet<ResourceLocation> roles, Instant time) {
+        // votes coming back from synchronizers have the same time, so they are not counted twice
+        Optional<Instant> oldTime = this.getTime(uuid);
+        if (oldTime.isEmpty() || time.isAfter(oldTime.get())) {
+            if (this.activity == null) {
+                this.activity = new VoteActivity();
+            }
+            oldTime.ifPresent(this.activity::remove);
+            this.activity.record(time);
+        }
+        long packed = RoleSets.pack(level, roles, time);
+        if (packed != 0L) {
+            this.votes.put(uuid, packed);
+            this.unpackedVotes.remove(uuid);
+        } else {
+            VoteKey key = new VoteKey(this.key.artifactID(), this.key.categoryID(), uuid);
+            this.unpackedVotes.put(uuid, new Vote(key, level, roles, time));
+            this.votes.removeLong(uuid);
+        }
+    }
+
+    private boolean removeVote(UUID uuid) {
+        if (this.activity != null) {
+            this.getTime(uuid).ifPresent(this.activity::remove);
+        }
+        // packed votes are never zero
+        return this.votes.removeLong(uuid) != 0L | this.unpackedVotes.remove(uuid) != null;
+    }
+
+    private void forEachVote(Consumer<? super Vote> consumer) {
+        for (Object2LongMap.Entry<UUID> entry : Object2LongMaps.fastIterable(this.votes)) {
+            long packed = entry.getLongValue();
+            VoteKey key = new VoteKey(this.key.artifactID(), this.key.categoryID(), entry.getKey());
+            consumer.accept(new Vote(key, RoleSets.unpackLevel(packed), RoleSets.unpackRoles(packed), RoleSets.unpackTime(packed)));
+        }
+        this.unpackedVotes.values().forEach(consumer);
+    }
+
+    Consumer<Consumer<? super Vote>> snapshotVotes() {
+        // votes are copied as they are packed, so that they could be unpacked later in other threads
+        Object2LongMap<UUID> votes = new Object2LongOpenHashMap<>(this.votes);
+        List<Vote> unpackedVotes = List.copyOf(this.unpackedVotes.values());
+        List<ImmutableSet<ResourceLocation>> roleSets = RoleSets.snapshot();
+        return consumer -> {
+            for (Object2LongMap.Entry<UUID> entry : Object2LongMaps.fastIterable(votes)) {
+                long packed = entry.getLongValue();
+                VoteKey key = new VoteKey(this.key.artifactID(), this.key.categoryID(), entry.getKey());
+                ImmutableSet<ResourceLocation> roles = roleSets.get(RoleSets.unpackRoleSetIndex(packed));
+                consumer.accept(new Vote(key, RoleSets.unpackLevel(packed), roles, RoleSets.unpackTime(packed)));
+            }
+            unpackedVotes.forEach(consumer);
+        };
     }
 
     private void emitVoteDisabledAnnouncement(@Nullable Boolean enabled) {
         Optional<Boolean> disabled = enabled == null ? Optional.empty() : Optional.of(!enabled);
-        this.queuedAnnouncements.offer(new VoteDisabled(this.key, disabled));
+        this.enqueue(new VoteDisabled(this.key, disabled));
     }
 
     public UUID getArtifactID() {
@@ -125,28 +272,33 @@ public final class VoteList {
     }
 
     public void setEnabled(boolean enabled) {
+        this.checkMutable();
         if (this.enabled != Boolean.valueOf(enabled)) {
-            this.enabled = enabled;
+            this.updateEnabled(enabled);
             this.emitVoteDisabledAnnouncement(enabled);
         }
     }
 
     public void unsetEnabled() {
+        this.checkMutable();
         if (this.enabled != null) {
-            this.enabled = null;
+            this.updateEnabled(null);
             this.emitVoteDisabledAnnouncement(null);
         }
     }
 
     public int merge(VoteList fromList) {
+        this.checkMutable();
         int[] countArray = new int[1];
         if (fromList != this) {
-            fromList.votes.forEach((uuid, from) -> {
-                Triple<Integer, ImmutableSet<ResourceLocation>, Instant> triple = this.votes.get(uuid);
-                if (triple == null || triple.getRight().isBefore(from.getRight())) {
+            fromList.forEachVote(from -> {
+                UUID uuid = from.key().voterID();
+                Optional<Instant> time = this.getTime(uuid);
+                if (time.isEmpty() || time.get().isBefore(from.time())) {
                     countArray[0] += 1;
-                    this.votes.put(uuid, from);
-                    this.emitVoteAnnouncement(uuid, from);
+                    this.putVote(uuid, from.level(), from.roles(), from.time());
+                    this.emitVoteAnnouncement(new Vote(new VoteKey(this.key.artifactID(),
+                            this.key.categoryID(), uuid), from.level(), from.roles(), from.time()));
                 }
             });
         }
@@ -158,15 +310,37 @@ public final class VoteList {
     }
 
     public int get(UUID uuid) {
-        return this.votes.containsKey(uuid) ? this.votes.get(uuid).getLeft() : 0;
+        long packed = this.votes.getLong(uuid);
+        if (packed != 0L) {
+            return RoleSets.unpackLevel(packed);
+        }
+        Vote vote = this.unpackedVotes.get(uuid);
+        return vote != null ? vote.level() : 0;
     }
 
     public Optional<Instant> getTime(UUID uuid) {
-        return this.votes.containsKey(uuid) ? Optional.of(this.votes.get(uuid).getRight()) : Optional.empty();
+        long packed = this.votes.getLong(uuid);
+        if (packed != 0L) {
+            return Optional.of(RoleSets.unpackTime(packed));
+        }
+        return Optional.ofNullable(this.unpackedVotes.get(uuid)).map(Vote::time);
+    }
+
+    public int[] getHourlyActivity(Instant now, int hours) {
+        if (this.activity == null) {
+            Preconditions.checkArgument(hours > 0 && hours <= VoteActivity.BUCKET_COUNT, "hours out of range");
+            return new int[hours];
+        }
+        return this.activity.collect(now, hours);
     }
 
     public Collection<? extends ResourceLocation> getRoles(UUID uuid) {
-        return this.votes.containsKey(uuid) ? this.votes.get(uuid).getMiddle() : ImmutableSet.of();
+        long packed = this.votes.getLong(uuid);
+        if (packed != 0L) {
+            return RoleSets.unpackRoles(packed);
+        }
+        Vote vote = this.unpackedVotes.get(uuid);
+        return vote != null ? vote.roles() : ImmutableSet.of();
     }
 
     public void set(ServerPlayer player, int level) {
@@ -175,44 +349,55 @@ public final class VoteList {
 
     public void set(UUID uuid, int level, Collection<? extends ResourceLocation> roles, Instant voteTime) {
         Preconditions.checkArgument(level >= 0 && level <= 5, "level out of range from 0 to 5");
+        this.checkMutable();
 
+        // vote times are saved and synchronized in milliseconds
         ImmutableSet<ResourceLocation> roleSet = ImmutableSet.copyOf(roles);
-        Triple<Integer, ImmutableSet<ResourceLocation>, Instant> triple = Triple.of(level, roleSet, voteTime);
+        Instant time = voteTime.truncatedTo(ChronoUnit.MILLIS);
+        VoteKey key = new VoteKey(this.key.artifactID(), this.key.categoryID(), uuid);
 
         if (level > 0) {
-            this.votes.put(uuid, triple);
-            this.emitVoteAnnouncement(uuid, triple);
+            this.putVote(uuid, level, roleSet, time);
+            this.emitVoteAnnouncement(new Vote(key, level, roleSet, time));
         } else {
-            this.votes.remove(uuid);
-            this.emitVoteAnnouncement(uuid, triple);
+            this.removeVote(uuid);
+            this.emitVoteAnnouncement(new Vote(key, level, roleSet, time));
         }
     }
 
     public void clear() {
-        Map<UUID, Triple<Integer, ImmutableSet<ResourceLocation>, Instant>> votes = Map.copyOf(this.votes);
+        this.checkMutable();
+        List<Vote> votes = new ArrayList<>(this.votes.size() + this.unpackedVotes.size());
+        this.forEachVote(votes::add);
         this.votes.clear();
+        this.unpackedVotes.clear();
+        this.activity = null;
         votes.forEach(this::emitVoteAnnouncement);
     }
 
     public void buildAnnouncements(Collection<? super Announcement> announcements) {
-        for (Map.Entry<UUID, Triple<Integer, ImmutableSet<ResourceLocation>, Instant>> entry : this.votes.entrySet()) {
-            Triple<Integer, ImmutableSet<ResourceLocation>, Instant> triple = entry.getValue();
-            VoteKey key = new VoteKey(this.key.artifactID(), this.key.categoryID(), entry.getKey());
-            announcements.add(new Vote(key, triple.getLeft(), triple.getMiddle(), triple.getRight()));
-        }
+        this.forEachVote(announcements::add);
         if (this.enabled != null) {
             announcements.add(new VoteDisabled(this.key, Optional.of(!this.enabled)));
         }
+        // stats are also saved so that they are available before votes are loaded
+        for (Map.Entry<ResourceLocation, ImmutableIntArray> entry : this.delayedStatsMap.entrySet()) {
+            VoteStatsKey key = new VoteStatsKey(this.key.artifactID(), this.key.categoryID(), entry.getKey());
+            announcements.add(new VoteStats(key, entry.getValue()));
+        }
     }
 
     public void loadLegacyNBT(CompoundTag source) {
+        this.checkMutable();
         Preconditions.checkArgument(deserializeKey(source).equals(this.key), "invalid artifact or category");
         Boolean enabled = source.contains("Disabled", Tag.TAG_ANY_NUMERIC) ? !source.getBoolean("Disabled") : null;
         if (this.enabled != enabled) {
-            this.enabled = enabled;
+            this.updateEnabled(enabled);
             this.emitVoteDisabledAnnouncement(this.enabled);
         }
         this.votes.clear();
+        this.unpackedVotes.clear();
+        this.activity = null;
         ListTag nbt = source.getList("Votes", Tag.TAG_COMPOUND);
         for (int i = 0, size = nbt.size(); i < size; ++i) {
             CompoundTag child = nbt.getCompound(i);
@@ -227,63 +412,255 @@ public final class VoteList {
                 voteTime = Instant.ofEpochMilli(child.getLong("VoteTime"));
             }
             UUID uuid = child.getUUID("UUID");
-            if (!this.votes.containsKey(uuid) || this.votes.get(uuid).getRight().isBefore(voteTime)) {
-                this.votes.put(uuid, Triple.of(level, roles, voteTime));
-                this.emitVoteAnnouncement(uuid, Triple.of(level, roles, voteTime));
+            Optional<Instant> time = this.getTime(uuid);
+            if (time.isEmpty() || time.get().isBefore(voteTime)) {
+                this.putVote(uuid, level, roles, voteTime);
+                this.emitVoteAnnouncement(new Vote(new VoteKey(this.key.artifactID(), this.key.categoryID(), uuid), level, roles, voteTime));
             }
         }
     }
 
     public SortedMap<String, Stats> buildStatsMap() {
-        if (this.delayedCachedScores.isEmpty()) {
-            // noinspection UnstableApiUsage
-            ImmutableIntArray zeros = ImmutableIntArray.of(0, 0, 0, 0, 0, 0);
-            ListMultimap<String, Stats> results = ArrayListMultimap.create();
+        this.refreshScores();
+        // immutable stats are only built when requested
+        if (this.delayedCachedScores.size() < this.delayedSubgroupScores.size()) {
+            for (Map.Entry<String, Stats.Accumulator> entry : this.delayedSubgroupScores.entrySet()) {
+                if (!this.delayedCachedScores.containsKey(entry.getKey())) {
+                    this.delayedCachedScores.put(entry.getKey(), entry.getValue().build());
+                }
+            }
+        }
+        return this.delayedCachedScores;
+    }
+
+    public float getFinalScore() {
+        this.refreshScores();
+        return this.delayedFinalScore.getFinalScore(6.0F);
+    }
+
+    private void refreshScores() {
+        int epoch = VoteRoleHandler.getEpoch();
+        if (this.delayedEpoch != epoch) {
+            // participations may have changed after reloading, so every score is rebuilt
+            this.delayedEpoch = epoch;
+            this.delayedRoleScores.clear();
+            this.delayedSubgroupScores.clear();
+            this.delayedCachedScores.clear();
+            this.delayedDirtySubgroups.clear();
+            this.delayedFinalScore.reset();
             for (ResourceLocation location : VoteRoleHandler.getIds()) {
-                VoteRole role = VoteRoleHandler.getRole(location).orElseThrow(NullPointerException::new);
+                VoteRole role = VoteRoleHandler.getRole(location).orElseThrow(IllegalStateException::new);
+                List<VoteRole.Participation> participations = role.categories.get(this.key.categoryID());
+                ParticipationScore[] roleScores = new ParticipationScore[participations.size()];
                 // noinspection UnstableApiUsage
-                ImmutableIntArray countsByLevel = this.delayedStatsMap.computeIfAbsent(location, k -> zeros);
-                for (VoteRole.Participation participation : role.categories.get(this.key.categoryID())) {
-                    float weight = participation.weight, finalScore = Float.NaN;
-                    // noinspection UnstableApiUsage
-                    int count = -countsByLevel.get(0), truncation = participation.truncation;
-                    int effectiveCount = Math.max(0, count - truncation * 2);
-                    if (effectiveCount > 0) {
-                        // noinspection UnstableApiUsage
-                        int[] counts = countsByLevel.toArray();
-                        for (int i = 1, left = truncation; left > 0; ++i) {
-                            int diff = Math.min(left, counts[i]);
-                            counts[i] -= diff;
-                            left -= diff;
-                        }
-                        for (int i = 5, left = truncation; left > 0; --i) {
-                            int diff = Math.min(left, counts[i]);
-                            counts[i] -= diff;
-                            left -= diff;
+                ImmutableIntArray countsByLevel = this.delayedStatsMap.getOrDefault(location, ZEROS);
+                for (int i = 0; i < roleScores.length; ++i) {
+                    roleScores[i] = new ParticipationScore(participations.get(i));
+                    roleScores[i].update(countsByLevel);
+                    this.delayedDirtySubgroups.add(roleScores[i].subgroup);
+                }
+                this.delayedRoleScores.put(location, roleScores);
+            }
+        }
+        if (!this.delayedDirtySubgroups.isEmpty()) {
+            for (String subgroup : this.delayedDirtySubgroups) {
+                Stats.Accumulator accumulator = this.delayedSubgroupScores.get(subgroup);
+                if (accumulator == null) {
+                    accumulator = new Stats.Accumulator();
+                } else {
+                    accumulator.reset();
+                }
+                boolean present = false;
+                for (ParticipationScore[] roleScores : this.delayedRoleScores.values()) {
+                    for (ParticipationScore roleScore : roleScores) {
+                        if (subgroup.equals(roleScore.subgroup)) {
+                            roleScore.accumulateTo(accumulator);
+                            present = true;
                         }
-                        float sum = 2F * counts[1] + 4F * counts[2] + 6F * counts[3] + 8F * counts[4] + 10F * counts[5];
-                        finalScore = sum / effectiveCount;
                     }
-                    results.put(participation.subgroup, new Stats(weight, finalScore, effectiveCount, countsByLevel));
                 }
+                if (present) {
+                    this.delayedSubgroupScores.put(subgroup, accumulator);
+                } else {
+                    this.delayedSubgroupScores.remove(subgroup);
+                }
+                this.delayedCachedScores.remove(subgroup);
             }
-            for (Map.Entry<String, Collection<Stats>> entry : results.asMap().entrySet()) {
-                Stats stats = Stats.combine(entry.getValue(), s -> s.getEffectiveCount() * s.getWeight());
-                this.delayedCachedScores.put(entry.getKey(), stats);
+            this.delayedDirtySubgroups.clear();
+            this.delayedFinalScore.reset();
+            for (Stats.Accumulator accumulator : this.delayedSubgroupScores.values()) {
+                this.delayedFinalScore.accumulate(accumulator, accumulator.getWeight());
             }
         }
-        return this.delayedCachedScores;
     }
 
-    public float getFinalScore() {
-        Collection<Stats> scores = this.buildStatsMap().values();
-        return VoteList.Stats.combine(scores, VoteList.Stats::getWeight).getFinalScore(6.0F);
+    public Map<ResourceLocation, ImmutableIntArray> snapshotStats() {
+        return ImmutableMap.copyOf(this.delayedStatsMap);
+    }
+
+    public static SortedMap<String, Stats> buildStatsMap(Map<ResourceLocation, VoteRole> roles, ResourceLocation categoryID,
+                                                         Map<ResourceLocation, ImmutableIntArray> statsMap) {
+        // the same as the cached one, but is pure so that it could be called in any thread
+        Map<String, Stats.Accumulator> accumulators = new TreeMap<>();
+        for (Map.Entry<ResourceLocation, VoteRole> entry : roles.entrySet()) {
+            // noinspection UnstableApiUsage
+            ImmutableIntArray countsByLevel = statsMap.getOrDefault(entry.getKey(), ZEROS);
+            for (VoteRole.Participation participation : entry.getValue().categories.get(categoryID)) {
+                ParticipationScore roleScore = new ParticipationScore(participation);
+                roleScore.update(countsByLevel);
+                roleScore.accumulateTo(accumulators.computeIfAbsent(roleScore.subgroup, k -> new Stats.Accumulator()));
+            }
+        }
+        SortedMap<String, Stats> results = new TreeMap<>();
+        accumulators.forEach((subgroup, accumulator) -> results.put(subgroup, accumulator.build()));
+        return results;
+    }
+
+    public static float getFinalScore(Collection<Stats> scores) {
+        Stats.Accumulator accumulator = new Stats.Accumulator();
+        for (Stats stats : scores) {
+            accumulator.accumulate(stats, Stats::getWeight);
+        }
+        return accumulator.getFinalScore(6.0F);
+    }
+
+    private static int getEffectiveCount(ImmutableIntArray countsByLevel, int truncation) {
+        // noinspection UnstableApiUsage
+        return Math.max(0, -countsByLevel.get(0) - truncation * 2);
+    }
+
+    private static float getTruncatedScore(ImmutableIntArray countsByLevel, int truncation, int effectiveCount, int[] scratch) {
+        if (effectiveCount <= 0) {
+            return Float.NaN;
+        }
+        for (int i = 1; i <= 5; ++i) {
+            // noinspection UnstableApiUsage
+            scratch[i] = countsByLevel.get(i);
+        }
+        for (int i = 1, left = truncation; left > 0; ++i) {
+            int diff = Math.min(left, scratch[i]);
+            scratch[i] -= diff;
+            left -= diff;
+        }
+        for (int i = 5, left = truncation; left > 0; --i) {
+            int diff = Math.min(left, scratch[i]);
+            scratch[i] -= diff;
+            left -= diff;
+        }
+        float sum = 2F * scratch[1] + 4F * scratch[2] + 6F * scratch[3] + 8F * scratch[4] + 10F * scratch[5];
+        return sum / effectiveCount;
+    }
+
+    static void clearRoleSets() {
+        // role sets are shared by all the vote lists of a server, so they are cleared after the server has stopped
+        RoleSets.clear();
     }
 
     public static VoteDisabledKey deserializeKey(CompoundTag source) {
         return new VoteDisabledKey(source.getUUID("ArtifactUUID"), new ResourceLocation(source.getString("Category")));
     }
 
+    @MethodsReturnNonnullByDefault
+    @ParametersAreNonnullByDefault
+    public interface Listener {
+        void onQueued(VoteList voteList);
+
+        void onEnabledChanged(VoteList voteList, Optional<Boolean> oldEnabled);
+
+        void onStatsChanged(VoteList voteList);
+    }
+
+    @MethodsReturnNonnullByDefault
+    @ParametersAreNonnullByDefault
+    private static final class ParticipationScore {
+        private final float weight;
+        private final int truncation;
+        private final String subgroup;
+        private final int[] scratch = new int[1 + 5];
+
+        private float finalScore = Float.NaN;
+        private int effectiveCount = 0;
+        // noinspection UnstableApiUsage
+        private ImmutableIntArray countsByLevel = ZEROS;
+
+        private ParticipationScore(VoteRole.Participation participation) {
+            this.weight = participation.weight;
+            this.truncation = participation.truncation;
+            this.subgroup = participation.subgroup;
+        }
+
+        private void update(ImmutableIntArray countsByLevel) {
+            // updated in place so that nothing is allocated for each vote
+            this.countsByLevel = countsByLevel;
+            this.effectiveCount = getEffectiveCount(countsByLevel, this.truncation);
+            this.finalScore = getTruncatedScore(countsByLevel, this.truncation, this.effectiveCount, this.scratch);
+        }
+
+        private void accumulateTo(Stats.Accumulator accumulator) {
+            float scoreWeight = this.effectiveCount * this.weight;
+            accumulator.accumulate(this.weight, scoreWeight, this.finalScore, this.effectiveCount, this.countsByLevel);
+        }
+    }
+
+    @MethodsReturnNonnullByDefault
+    @ParametersAreNonnullByDefault
+    private static final class RoleSets {
+        // level (3 bits) | role set index (16 bits) | epoch millis (45 bits), zero is reserved for absent votes
+        private static final int LEVEL_BITS = 3, ROLES_BITS = 16, TIME_BITS = 64 - LEVEL_BITS - ROLES_BITS;
+
+        private static final List<ImmutableSet<ResourceLocation>> ROLE_SETS = new ArrayList<>();
+        private static final Object2IntMap<ImmutableSet<ResourceLocation>> ROLE_SET_INDICES = Util.make(new Object2IntOpenHashMap<ImmutableSet<ResourceLocation>>(), m -> m.defaultReturnValue(-1));
+
+        private static ImmutableList<ImmutableSet<ResourceLocation>> snapshot = ImmutableList.of();
+
+        private static ImmutableList<ImmutableSet<ResourceLocation>> snapshot() {
+            // role sets are only appended, so the snapshot is only copied again if there are new ones
+            if (snapshot.size() < ROLE_SETS.size()) {
+                snapshot = ImmutableList.copyOf(ROLE_SETS);
+            }
+            return snapshot;
+        }
+
+        private static void clear() {
+            ROLE_SETS.clear();
+            ROLE_SET_INDICES.clear();
+            snapshot = ImmutableList.of();
+        }
+
+        private static long pack(int level, ImmutableSet<ResourceLocation> roles, Instant time) {
+            long millis = time.toEpochMilli();
+            if (level <= 0 || level >= 1 << LEVEL_BITS || millis < 0L || millis >= 1L << TIME_BITS || time.getNano() % 1000000 != 0) {
+                return 0L;
+            }
+            int index = ROLE_SET_INDICES.getInt(roles);
+            if (index < 0) {
+                if (ROLE_SETS.size() >= 1 << ROLES_BITS) {
+                    return 0L;
+                }
+                index = ROLE_SETS.size();
+                ROLE_SETS.add(roles);
+                ROLE_SET_INDICES.put(roles, index);
+            }
+            return level | (long) index << LEVEL_BITS | millis << LEVEL_BITS + ROLES_BITS;
+        }
+
+        private static int unpackLevel(long packed) {
+            return (int) (packed & (1 << LEVEL_BITS) - 1);
+        }
+
+        private static ImmutableSet<ResourceLocation> unpackRoles(long packed) {
+            return ROLE_SETS.get(unpackRoleSetIndex(packed));
+        }
+
+        private static int unpackRoleSetIndex(long packed) {
+            return (int) (packed >>> LEVEL_BITS & (1 << ROLES_BITS) - 1);
+        }
+
+        private static Instant unpackTime(long packed) {
+            return Instant.ofEpochMilli(packed >>> LEVEL_BITS + ROLES_BITS);
+        }
+    }
+
     @MethodsReturnNonnullByDefault
     @ParametersAreNonnullByDefault
     public static final class Stats {
@@ -300,7 +677,7 @@ public final class VoteList {
             // noinspection UnstableApiUsage
             Preconditions.checkArgument(voteCountsByLevel.length() == 1 + 5);
             // noinspection UnstableApiUsage
-            Preconditions.checkArgument(voteCountsByLevel.stream().sum() == 0);
+            Preconditions.checkArgument(sum(voteCountsByLevel) == 0);
             Preconditions.checkArgument(effectiveCount > 0 || Float.isNaN(finalScore));
         }
 
@@ -333,32 +710,21 @@ public final class VoteList {
         }
 
         public static Stats combine(Iterable<? extends Stats> iterable, ScoreWeightFunction scoreWeightFunction) {
-            int effectiveCountSum = 0;
-            int[] countsByLevel = new int[1 + 5];
-            float weightSum = 0F, scoreDivisor = 0F, scoreSum = 0F;
+            Accumulator accumulator = new Accumulator();
             for (Stats stats : iterable) {
-                weightSum += stats.weight;
-                effectiveCountSum += stats.effectiveCount;
-                // noinspection UnstableApiUsage
-                countsByLevel[0] += stats.voteCountsByLevel.get(0);
-                // noinspection UnstableApiUsage
-                countsByLevel[1] += stats.voteCountsByLevel.get(1);
-                // noinspection UnstableApiUsage
-                countsByLevel[2] += stats.voteCountsByLevel.get(2);
-                // noinspection UnstableApiUsage
-                countsByLevel[3] += stats.voteCountsByLevel.get(3);
-                // noinspection UnstableApiUsage
-                countsByLevel[4] += stats.voteCountsByLevel.get(4);
-                // noinspection UnstableApiUsage
-                countsByLevel[5] += stats.voteCountsByLevel.get(5);
-                if (!Float.isNaN(stats.finalScore)) {
-                    scoreDivisor += scoreWeightFunction.calculateWeight(stats);
-                    scoreSum += scoreWeightFunction.calculateWeight(stats) * stats.finalScore;
-                }
+                accumulator.accumulate(stats, scoreWeightFunction);
             }
-            float finalScore = scoreDivisor > 0F && effectiveCountSum > 0F ? scoreSum / scoreDivisor : Float.NaN;
+            return accumulator.build();
+        }
+
+        private static int sum(ImmutableIntArray voteCountsByLevel) {
+            int sum = 0;
             // noinspection UnstableApiUsage
-            return new Stats(weightSum, finalScore, effectiveCountSum, ImmutableIntArray.copyOf(countsByLevel));
+            for (int i = 0, size = voteCountsByLevel.length(); i < size; ++i) {
+                // noinspection UnstableApiUsage
+                sum += voteCountsByLevel.get(i);
+            }
+            return sum;
         }
 
         @Override
@@ -373,5 +739,70 @@ public final class VoteList {
         public interface ScoreWeightFunction {
             float calculateWeight(Stats stats);
         }
+
+        @MethodsReturnNonnullByDefault
+        @ParametersAreNonnullByDefault
+        public static final class Accumulator {
+            // mutable and reusable, so that immutable stats are only built at the boundary of apis
+            private int effectiveCountSum;
+            private final int[] countsByLevel = new int[1 + 5];
+            private float weightSum, scoreDivisor, scoreSum;
+
+            public void reset() {
+                this.effectiveCountSum = 0;
+                Arrays.fill(this.countsByLevel, 0);
+                this.weightSum = this.scoreDivisor = this.scoreSum = 0F;
+            }
+
+            public void accumulate(Stats stats, ScoreWeightFunction scoreWeightFunction) {
+                float scoreWeight = scoreWeightFunction.calculateWeight(stats);
+                this.accumulate(stats.weight, scoreWeight, stats.finalScore, stats.effectiveCount, stats.voteCountsByLevel);
+            }
+
+            public void accumulate(Accumulator accumulator, float scoreWeight) {
+                this.weightSum += accumulator.weightSum;
+                this.effectiveCountSum += accumulator.effectiveCountSum;
+                for (int i = 0; i <= 5; ++i) {
+                    this.countsByLevel[i] += accumulator.countsByLevel[i];
+                }
+                this.accumulateScore(scoreWeight, accumulator.getFinalScore(Float.NaN));
+            }
+
+            public void accumulate(float weight, float scoreWeight, float finalScore, int effectiveCount, ImmutableIntArray countsByLevel) {
+                this.weightSum += weight;
+                this.effectiveCountSum += effectiveCount;
+                for (int i = 0; i <= 5; ++i) {
+                    // noinspection UnstableApiUsage
+                    this.countsByLevel[i] += countsByLevel.get(i);
+                }
+                this.accumulateScore(scoreWeight, finalScore);
+            }
+
+            private void accumulateScore(float scoreWeight, float finalScore) {
+                if (!Float.isNaN(finalScore)) {
+                    this.scoreDivisor += scoreWeight;
+                    this.scoreSum += scoreWeight * finalScore;
+                }
+            }
+
+            public float getWeight() {
+                return this.weightSum;
+            }
+
+            public int getEffectiveCount() {
+                return this.effectiveCountSum;
+            }
+
+            public float getFinalScore(float defaultScore) {
+                boolean valid = this.scoreDivisor > 0F && this.effectiveCountSum > 0F;
+                return valid ? this.scoreSum / this.scoreDivisor : defaultScore;
+            }
+
+            public Stats build() {
+                // noinspection UnstableApiUsage
+                ImmutableIntArray counts = ImmutableIntArray.copyOf(this.countsByLevel);
+                return new Stats(this.weightSum, this.getFinalScore(Float.NaN), this.effectiveCountSum, counts);
+            }
+        }
     }
 }
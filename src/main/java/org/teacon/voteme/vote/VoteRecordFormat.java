@@ -0,0 +1,269 @@
+package org.teacon.voteme.vote;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.resources.ResourceLocation;
+import org.teacon.voteme.sync.VoteSynchronizer.Vote;
+import org.teacon.voteme.sync.VoteSynchronizer.VoteKey;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.*;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/*
+ * Layout (version 2):
+ *
+ * version: byte
+ * blocks: one block per artifact and category, terminated by a zero block length
+ *   block length: varint
+ *   vote count: varint
+ *   artifact: long (most significant bits), long (least significant bits)
+ *   category: ref
+ *   voters: long (most significant bits) * vote count, long (least significant bits) * vote count
+ *   levels: byte * vote count
+ *   roles: (varint (role count), ref * role count) * vote count
+ *   times: zigzag varlong (delta from the previous vote in milliseconds) * vote count
+ *
+ * ref: varint (index in the dictionary), followed by a utf string if the index equals the dictionary size
+ *
+ * Each block has its own dictionary so that it could be decoded (and copied) independently. Version 1 has neither
+ * block lengths nor separated dictionaries, and blocks are terminated by a zero vote count instead.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class VoteRecordFormat {
+    private static final int VERSION = 2;
+
+    public static int read(InputStream stream, Consumer<? super Vote> consumer) throws IOException {
+        int size = 0;
+        DataInputStream input = new DataInputStream(stream);
+        int version = input.readUnsignedByte();
+        switch (version) {
+            case 1 -> {
+                List<ResourceLocation> dictionary = new ArrayList<>();
+                for (int count = readVarInt(input); count > 0; count = readVarInt(input)) {
+                    size += readBlock(input, count, dictionary, consumer);
+                }
+            }
+            case 2 -> {
+                for (int length = readVarInt(input); length > 0; length = readVarInt(input)) {
+                    size += readBlock(input, readVarInt(input), new ArrayList<>(), consumer);
+                }
+            }
+            default -> throw new IOException("unsupported vote record version: " + version);
+        }
+        return size;
+    }
+
+    public static int read(Block block, Consumer<? super Vote> consumer) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(block.source, block.offset, block.length));
+        return readBlock(input, readVarInt(input), new ArrayList<>(), consumer);
+    }
+
+    public static Optional<List<Block>> index(byte[] bytes) throws IOException {
+        ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
+        DataInputStream input = new DataInputStream(stream);
+        if (input.readUnsignedByte() != VERSION) {
+            return Optional.empty();
+        }
+        ImmutableList.Builder<Block> blocks = ImmutableList.builder();
+        for (int length = readVarInt(input); length > 0; length = readVarInt(input)) {
+            int offset = bytes.length - stream.available();
+            if (length > stream.available()) {
+                throw new EOFException("incomplete vote record block");
+            }
+            DataInputStream header = new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+            readVarInt(header);
+            UUID artifactID = new UUID(header.readLong(), header.readLong());
+            ResourceLocation categoryID = readRef(header, new ArrayList<>());
+            blocks.add(new Block(artifactID, categoryID, bytes, offset, length));
+            input.skipNBytes(length);
+        }
+        return Optional.of(blocks.build());
+    }
+
+    private static int readBlock(DataInput input, int count, List<ResourceLocation> dictionary, Consumer<? super Vote> consumer) throws IOException {
+        UUID artifactID = new UUID(input.readLong(), input.readLong());
+        ResourceLocation categoryID = readRef(input, dictionary);
+        long[] voterMost = new long[count], voterLeast = new long[count];
+        for (int i = 0; i < count; ++i) {
+            voterMost[i] = input.readLong();
+        }
+        for (int i = 0; i < count; ++i) {
+            voterLeast[i] = input.readLong();
+        }
+        byte[] levels = new byte[count];
+        input.readFully(levels);
+        List<ImmutableSet<ResourceLocation>> roles = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            ImmutableSet.Builder<ResourceLocation> builder = ImmutableSet.builder();
+            for (int j = readVarInt(input); j > 0; --j) {
+                builder.add(readRef(input, dictionary));
+            }
+            roles.add(builder.build());
+        }
+        long time = 0L;
+        for (int i = 0; i < count; ++i) {
+            time += decodeZigZag(readVarLong(input));
+            VoteKey key = new VoteKey(artifactID, categoryID, new UUID(voterMost[i], voterLeast[i]));
+            consumer.accept(new Vote(key, levels[i], roles.get(i), Instant.ofEpochMilli(time)));
+        }
+        return count;
+    }
+
+    public record Block(UUID artifactID, ResourceLocation categoryID, byte[] source, int offset, int length) {
+        // the source array is shared and should never be modified
+    }
+
+    public static final class Writer {
+        private final DataOutputStream output;
+        private final List<Vote> block = new ArrayList<>();
+        private final ByteArrayOutputStream blockBuffer = new ByteArrayOutputStream();
+        private final DataOutputStream blockOutput = new DataOutputStream(this.blockBuffer);
+        private final Object2IntMap<ResourceLocation> dictionary = new Object2IntOpenHashMap<>();
+
+        public Writer(OutputStream stream) throws IOException {
+            this.output = new DataOutputStream(stream);
+            this.output.writeByte(VERSION);
+            this.dictionary.defaultReturnValue(-1);
+        }
+
+        public void write(Vote vote) throws IOException {
+            Preconditions.checkArgument(vote.level() == (byte) vote.level(), "level out of range");
+            if (!this.block.isEmpty()) {
+                VoteKey first = this.block.get(0).key();
+                if (!first.artifactID().equals(vote.key().artifactID()) || !first.categoryID().equals(vote.key().categoryID())) {
+                    this.flushBlock();
+                }
+            }
+            this.block.add(vote);
+        }
+
+        public void write(Block block) throws IOException {
+            this.flushBlock();
+            writeVarInt(this.output, block.length);
+            this.output.write(block.source, block.offset, block.length);
+        }
+
+        public void finish() throws IOException {
+            this.flushBlock();
+            writeVarInt(this.output, 0);
+            this.output.flush();
+        }
+
+        private void flushBlock() throws IOException {
+            int count = this.block.size();
+            if (count > 0) {
+                // sorted by time so that deltas stay small
+                this.block.sort(Comparator.comparing(Vote::time));
+                this.dictionary.clear();
+                this.blockBuffer.reset();
+                VoteKey first = this.block.get(0).key();
+                writeVarInt(this.blockOutput, count);
+                this.blockOutput.writeLong(first.artifactID().getMostSignificantBits());
+                this.blockOutput.writeLong(first.artifactID().getLeastSignificantBits());
+                this.writeRef(first.categoryID());
+                for (Vote vote : this.block) {
+                    this.blockOutput.writeLong(vote.key().voterID().getMostSignificantBits());
+                }
+                for (Vote vote : this.block) {
+                    this.blockOutput.writeLong(vote.key().voterID().getLeastSignificantBits());
+                }
+                for (Vote vote : this.block) {
+                    this.blockOutput.writeByte(vote.level());
+                }
+                for (Vote vote : this.block) {
+                    writeVarInt(this.blockOutput, vote.roles().size());
+                    for (ResourceLocation role : vote.roles()) {
+                        this.writeRef(role);
+                    }
+                }
+                long time = 0L;
+                for (Vote vote : this.block) {
+                    long current = vote.time().toEpochMilli();
+                    writeVarLong(this.blockOutput, encodeZigZag(current - time));
+                    time = current;
+                }
+                writeVarInt(this.output, this.blockBuffer.size());
+                this.blockBuffer.writeTo(this.output);
+                this.block.clear();
+            }
+        }
+
+        private void writeRef(ResourceLocation location) throws IOException {
+            int index = this.dictionary.getInt(location);
+            if (index < 0) {
+                index = this.dictionary.size();
+                this.dictionary.put(location, index);
+                writeVarInt(this.blockOutput, index);
+                this.blockOutput.writeUTF(location.toString());
+            } else {
+                writeVarInt(this.blockOutput, index);
+            }
+        }
+    }
+
+    private static ResourceLocation readRef(DataInput input, List<ResourceLocation> dictionary) throws IOException {
+        int index = readVarInt(input);
+        if (index == dictionary.size()) {
+            dictionary.add(new ResourceLocation(input.readUTF()));
+        } else if (index < 0 || index > dictionary.size()) {
+            throw new IOException("invalid dictionary index: " + index);
+        }
+        return dictionary.get(index);
+    }
+
+    private static long encodeZigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long decodeZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt(DataOutput output, int value) throws IOException {
+        writeVarLong(output, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarLong(DataOutput output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static int readVarInt(DataInput input) throws IOException {
+        long value = readVarLong(input);
+        if (value != (value & 0xFFFFFFFFL)) {
+            throw new IOException("varint too big");
+        }
+        return (int) value;
+    }
+
+    private static long readVarLong(DataInput input) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("varlong too big");
+    }
+
+    private VoteRecordFormat() {
+        throw new IllegalStateException();
+    }
+}
@@ -0,0 +1,53 @@
+package org.teacon.voteme.vote;
+
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+import com.google.common.primitives.ImmutableIntArray;
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.resources.ResourceLocation;
+import org.teacon.voteme.roles.VoteRole;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/*
+ * Scores vote lists in batches on the common fork join pool.
+ *
+ * Inputs are snapshots taken on the server thread, and scoring itself is pure, so that ticks are never blocked.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public final class VoteScoringEngine {
+    public static CompletableFuture<Table<UUID, ResourceLocation, Result>> score(List<Input> inputs, Map<ResourceLocation, VoteRole> roles) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<Result> results = inputs.parallelStream().map(input -> score(input, roles)).toList();
+            ImmutableTable.Builder<UUID, ResourceLocation, Result> builder = ImmutableTable.builder();
+            for (int i = 0, size = inputs.size(); i < size; ++i) {
+                builder.put(inputs.get(i).artifactID(), inputs.get(i).categoryID(), results.get(i));
+            }
+            return builder.build();
+        }, ForkJoinPool.commonPool());
+    }
+
+    private static Result score(Input input, Map<ResourceLocation, VoteRole> roles) {
+        SortedMap<String, VoteList.Stats> subgroups = VoteList.buildStatsMap(roles, input.categoryID(), input.stats());
+        return new Result(subgroups, VoteList.getFinalScore(subgroups.values()));
+    }
+
+    public record Input(UUID artifactID, ResourceLocation categoryID, Map<ResourceLocation, ImmutableIntArray> stats) {
+        // nothing here
+    }
+
+    public record Result(SortedMap<String, VoteList.Stats> subgroups, float finalScore) {
+        // nothing here
+    }
+
+    private VoteScoringEngine() {
+        throw new IllegalStateException();
+    }
+}
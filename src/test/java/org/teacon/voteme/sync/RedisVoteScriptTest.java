@@ -0,0 +1,148 @@
+package org.teacon.voteme.sync;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.ImmutableIntArray;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.protocol.ProtocolVersion;
+import net.minecraft.MethodsReturnNonnullByDefault;
+import net.minecraft.resources.ResourceLocation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.teacon.voteme.sync.VoteSynchronizer.Vote;
+import org.teacon.voteme.sync.VoteSynchronizer.VoteKey;
+import org.teacon.voteme.sync.VoteSynchronizer.VoteStats;
+import org.teacon.voteme.sync.VoteSynchronizer.VoteStatsKey;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+public class RedisVoteScriptTest {
+    private static final UUID ARTIFACT = UUID.fromString("a3f4c3d2-3e5b-4c7a-9d1e-2b6f8a9c0d1e");
+    private static final UUID VOTER = UUID.fromString("5d6e7f80-91a2-4b3c-8d4e-5f6a7b8c9d0e");
+    private static final ResourceLocation CATEGORY = new ResourceLocation("voteme", "general");
+    private static final ResourceLocation PLAYERS = new ResourceLocation("voteme", "general_players");
+    private static final ResourceLocation JUDGES = new ResourceLocation("voteme", "professional_judges");
+    private static final Instant TIME = Instant.parse("2021-01-09T02:00:00.123Z");
+
+    private RespStandIn server;
+    private RedisClient client;
+    private StatefulRedisConnection<String, String> connection;
+    private String digest;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        this.server = new RespStandIn();
+        this.client = RedisClient.create(RedisURI.create("localhost", this.server.getPort()));
+        this.client.setOptions(ClientOptions.builder().protocolVersion(ProtocolVersion.RESP2).build());
+        this.connection = this.client.connect();
+        this.digest = this.connection.sync().scriptLoad(RedisVoteScript.SOURCE);
+    }
+
+    @AfterEach
+    public void cleanup() throws IOException {
+        this.connection.close();
+        this.client.shutdown();
+        this.server.close();
+    }
+
+    @Test
+    public void testNewVote() {
+        RedisVoteScript.Result result = this.apply(vote(4, Set.of(PLAYERS, JUDGES), TIME), Set.of());
+        Map<ResourceLocation, ImmutableIntArray> stats = stats(result);
+        assertEquals(counts(-1, 0, 0, 0, 1, 0), stats.get(PLAYERS));
+        assertEquals(counts(-1, 0, 0, 0, 1, 0), stats.get(JUDGES));
+        Map<String, String> hash = this.server.getHash(RedisSynchronizer.toRedisKey(voteKey()));
+        assertEquals("4", hash.get("level"));
+        assertEquals(Long.toString(TIME.toEpochMilli()), hash.get("millis"));
+        assertEquals(TIME.toString(), hash.get("time"));
+    }
+
+    @Test
+    public void testOutdatedVote() {
+        stats(this.apply(vote(4, Set.of(PLAYERS), TIME), Set.of()));
+        assertInstanceOf(RedisVoteScript.Outdated.class, this.apply(vote(2, Set.of(PLAYERS), TIME), Set.of()));
+        assertInstanceOf(RedisVoteScript.Outdated.class, this.apply(vote(2, Set.of(PLAYERS), TIME.minusMillis(1)), Set.of()));
+        assertEquals("4", this.server.getHash(RedisSynchronizer.toRedisKey(voteKey())).get("level"));
+    }
+
+    @Test
+    public void testChangedVote() {
+        stats(this.apply(vote(4, Set.of(PLAYERS), TIME), Set.of()));
+        Map<ResourceLocation, ImmutableIntArray> stats = stats(this.apply(vote(2, Set.of(PLAYERS), TIME.plusMillis(1)), Set.of()));
+        assertEquals(counts(-1, 0, 1, 0, 0, 0), stats.get(PLAYERS));
+        stats = stats(this.apply(vote(0, Set.of(PLAYERS), TIME.plusMillis(2)), Set.of()));
+        assertEquals(counts(0, 0, 0, 0, 0, 0), stats.get(PLAYERS));
+    }
+
+    @Test
+    public void testLegacyVote() {
+        // votes written by old versions only have the time field
+        String voteKey = RedisSynchronizer.toRedisKey(voteKey());
+        this.server.putHash(voteKey, Map.of("level", "3", "time", TIME.toString(), "role:0", PLAYERS.toString()));
+        this.server.putHash(statsKey(PLAYERS), Map.of("level:0", "-1", "level:3", "1"));
+        assertInstanceOf(RedisVoteScript.Outdated.class, this.apply(vote(5, Set.of(PLAYERS), TIME), Set.of()));
+        assertInstanceOf(RedisVoteScript.Outdated.class, this.apply(vote(5, Set.of(PLAYERS), TIME.minusMillis(1)), Set.of()));
+        Map<ResourceLocation, ImmutableIntArray> stats = stats(this.apply(vote(5, Set.of(PLAYERS), TIME.plusMillis(1)), Set.of()));
+        assertEquals(counts(-1, 0, 0, 0, 0, 1), stats.get(PLAYERS));
+
+        // times without fractions are also accepted
+        this.server.putHash(voteKey, Map.of("time", "2021-01-09T02:00:01Z", "millis", ""));
+        assertInstanceOf(RedisVoteScript.Outdated.class, this.apply(vote(1, Set.of(PLAYERS), Instant.parse("2021-01-09T02:00:01Z")), Set.of()));
+        stats(this.apply(vote(1, Set.of(PLAYERS), Instant.parse("2021-01-09T02:00:01.001Z")), Set.of()));
+    }
+
+    @Test
+    public void testMissingRoles() {
+        stats(this.apply(vote(4, Set.of(JUDGES), TIME), Set.of()));
+        RedisVoteScript.Result result = this.apply(vote(2, Set.of(PLAYERS), TIME.plusMillis(1)), Set.of());
+        assertEquals(new RedisVoteScript.MissingRoles(ImmutableSet.of(JUDGES)), result);
+        // nothing is written if stats keys of some roles are not declared
+        assertEquals("4", this.server.getHash(RedisSynchronizer.toRedisKey(voteKey())).get("level"));
+        Map<ResourceLocation, ImmutableIntArray> stats = stats(this.apply(vote(2, Set.of(PLAYERS), TIME.plusMillis(1)), Set.of(JUDGES)));
+        assertEquals(counts(-1, 0, 1, 0, 0, 0), stats.get(PLAYERS));
+        assertEquals(counts(0, 0, 0, 0, 0, 0), stats.get(JUDGES));
+    }
+
+    private RedisVoteScript.Result apply(Vote vote, Set<ResourceLocation> extraRoles) {
+        String[] keys = RedisVoteScript.keys(vote, extraRoles), args = RedisVoteScript.args(vote);
+        List<Object> output = this.connection.sync().evalsha(this.digest, ScriptOutputType.MULTI, keys, args);
+        return RedisVoteScript.parse(output);
+    }
+
+    private static Map<ResourceLocation, ImmutableIntArray> stats(RedisVoteScript.Result result) {
+        RedisVoteScript.Applied applied = assertInstanceOf(RedisVoteScript.Applied.class, result);
+        return applied.stats().stream().collect(ImmutableMap.toImmutableMap(s -> s.key().roleID(), VoteStats::counts));
+    }
+
+    private static Vote vote(int level, Set<ResourceLocation> roles, Instant time) {
+        return new Vote(voteKey(), level, ImmutableSet.copyOf(roles), time);
+    }
+
+    private static VoteKey voteKey() {
+        return new VoteKey(ARTIFACT, CATEGORY, VOTER);
+    }
+
+    private static String statsKey(ResourceLocation role) {
+        return RedisSynchronizer.toRedisKey(new VoteStatsKey(ARTIFACT, CATEGORY, role));
+    }
+
+    private static ImmutableIntArray counts(int... counts) {
+        // noinspection UnstableApiUsage
+        return ImmutableIntArray.copyOf(counts);
+    }
+}
@@ -0,0 +1,309 @@
+package org.teacon.voteme.sync;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.minecraft.MethodsReturnNonnullByDefault;
+import org.luaj.vm2.*;
+import org.luaj.vm2.lib.VarArgFunction;
+import org.luaj.vm2.lib.jse.JsePlatform;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * A redis server in the same jvm which speaks resp2 and only knows what the vote script needs:
+ *
+ * PING, SCRIPT LOAD, EVALSHA (run by luaj, with redis.call bound to hashes in memory), and HGETALL, DEL, HSET, HINCRBY
+ *
+ * Commands are executed one by one, so scripts are atomic like they are in redis.
+ */
+@MethodsReturnNonnullByDefault
+@ParametersAreNonnullByDefault
+final class RespStandIn implements Closeable {
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+    private final Map<String, String> scripts = new HashMap<>();
+    private final Map<String, Map<String, String>> hashes = new HashMap<>();
+
+    RespStandIn() throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("RESP Stand-in %d").setDaemon(true).build());
+        this.executor.execute(this::accept);
+    }
+
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    public synchronized Map<String, String> getHash(String key) {
+        return Map.copyOf(this.hashes.getOrDefault(key, Map.of()));
+    }
+
+    public synchronized void putHash(String key, Map<String, String> fields) {
+        this.hashes.computeIfAbsent(key, k -> new LinkedHashMap<>()).putAll(fields);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.serverSocket.close();
+        this.executor.shutdownNow();
+    }
+
+    private void accept() {
+        while (!this.serverSocket.isClosed()) {
+            try {
+                Socket socket = this.serverSocket.accept();
+                this.executor.execute(() -> this.serve(socket));
+            } catch (IOException e) {
+                return; // the server socket is closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream output = new BufferedOutputStream(socket.getOutputStream());
+            while (true) {
+                List<String> command = readCommand(input);
+                if (command == null) {
+                    return; // the connection is closed
+                }
+                this.execute(command, output);
+                if (input.available() == 0) {
+                    output.flush();
+                }
+            }
+        } catch (IOException e) {
+            // the connection is broken, which is expected when the client is closed
+        }
+    }
+
+    private synchronized void execute(List<String> command, OutputStream output) throws IOException {
+        String name = command.get(0).toUpperCase(Locale.ROOT);
+        switch (name) {
+            case "PING" -> writeSimple(output, "PONG");
+            case "SCRIPT" -> {
+                if (command.size() == 3 && "LOAD".equalsIgnoreCase(command.get(1))) {
+                    String digest = sha1(command.get(2));
+                    this.scripts.put(digest, command.get(2));
+                    writeBulk(output, digest);
+                } else {
+                    writeError(output, "ERR unsupported script command");
+                }
+            }
+            case "EVALSHA" -> {
+                String script = this.scripts.get(command.get(1).toLowerCase(Locale.ROOT));
+                if (script == null) {
+                    writeError(output, "NOSCRIPT No matching script. Please use EVAL.");
+                    return;
+                }
+                int keyCount = Integer.parseInt(command.get(2));
+                List<String> keys = command.subList(3, 3 + keyCount);
+                List<String> args = command.subList(3 + keyCount, command.size());
+                try {
+                    writeLua(output, this.eval(script, keys, args));
+                } catch (LuaError e) {
+                    writeError(output, "ERR Error running script: " + e.getMessage().replace('\n', ' '));
+                }
+            }
+            default -> {
+                Object result;
+                try {
+                    result = this.call(name, command.subList(1, command.size()));
+                } catch (IllegalArgumentException e) {
+                    writeError(output, e.getMessage());
+                    return;
+                }
+                if (result instanceof Long integer) {
+                    writeInteger(output, integer);
+                } else {
+                    @SuppressWarnings("unchecked") List<String> strings = (List<String>) result;
+                    writeHeader(output, '*', strings.size());
+                    for (String string : strings) {
+                        writeBulk(output, string);
+                    }
+                }
+            }
+        }
+    }
+
+    private Object call(String name, List<String> args) {
+        switch (name) {
+            case "HGETALL" -> {
+                List<String> result = new ArrayList<>();
+                this.hashes.getOrDefault(args.get(0), Map.of()).forEach((field, value) -> {
+                    result.add(field);
+                    result.add(value);
+                });
+                return result;
+            }
+            case "DEL" -> {
+                return args.stream().filter(key -> this.hashes.remove(key) != null).count();
+            }
+            case "HSET" -> {
+                Map<String, String> hash = this.hashes.computeIfAbsent(args.get(0), k -> new LinkedHashMap<>());
+                long added = 0;
+                for (int i = 1; i + 1 < args.size(); i += 2) {
+                    added += hash.put(args.get(i), args.get(i + 1)) == null ? 1 : 0;
+                }
+                return added;
+            }
+            case "HINCRBY" -> {
+                Map<String, String> hash = this.hashes.computeIfAbsent(args.get(0), k -> new LinkedHashMap<>());
+                long value = Long.parseLong(hash.getOrDefault(args.get(1), "0")) + Long.parseLong(args.get(2));
+                hash.put(args.get(1), Long.toString(value));
+                return value;
+            }
+            default -> throw new IllegalArgumentException("ERR unknown command '" + name + "'");
+        }
+    }
+
+    private LuaValue eval(String script, List<String> keys, List<String> args) {
+        Globals globals = JsePlatform.standardGlobals();
+        // redis runs lua 5.1, in which unpack is a global function
+        if (globals.get("unpack").isnil()) {
+            globals.set("unpack", globals.get("table").get("unpack"));
+        }
+        globals.set("KEYS", toTable(keys));
+        globals.set("ARGV", toTable(args));
+        LuaTable redis = new LuaTable();
+        redis.set("call", new VarArgFunction() {
+            @Override
+            public Varargs invoke(Varargs varargs) {
+                List<String> command = new ArrayList<>();
+                for (int i = 1; i <= varargs.narg(); ++i) {
+                    LuaValue arg = varargs.arg(i);
+                    // numbers are converted to strings as what redis does
+                    command.add(arg.type() == LuaValue.TNUMBER ? Long.toString(arg.tolong()) : arg.tojstring());
+                }
+                Object result;
+                try {
+                    result = RespStandIn.this.call(command.get(0).toUpperCase(Locale.ROOT), command.subList(1, command.size()));
+                } catch (IllegalArgumentException e) {
+                    throw new LuaError(e.getMessage());
+                }
+                if (result instanceof Long integer) {
+                    return LuaValue.valueOf(integer);
+                }
+                @SuppressWarnings("unchecked") List<String> strings = (List<String>) result;
+                return toTable(strings);
+            }
+        });
+        globals.set("redis", redis);
+        return globals.load(script, "vote_script").call();
+    }
+
+    private static LuaTable toTable(List<String> strings) {
+        LuaTable table = new LuaTable();
+        for (int i = 0; i < strings.size(); ++i) {
+            table.set(i + 1, LuaValue.valueOf(strings.get(i)));
+        }
+        return table;
+    }
+
+    private static void writeLua(OutputStream output, LuaValue value) throws IOException {
+        // the same conversion as redis: numbers are truncated to integers, and arrays stop at the first nil
+        switch (value.type()) {
+            case LuaValue.TNUMBER -> writeInteger(output, value.tolong());
+            case LuaValue.TSTRING -> writeBulk(output, value.tojstring());
+            case LuaValue.TBOOLEAN -> {
+                if (value.toboolean()) {
+                    writeInteger(output, 1L);
+                } else {
+                    output.write("$-1\r\n".getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            case LuaValue.TTABLE -> {
+                List<LuaValue> elements = new ArrayList<>();
+                for (int i = 1; !value.get(i).isnil(); ++i) {
+                    elements.add(value.get(i));
+                }
+                writeHeader(output, '*', elements.size());
+                for (LuaValue element : elements) {
+                    writeLua(output, element);
+                }
+            }
+            default -> output.write("$-1\r\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static @Nullable List<String> readCommand(DataInputStream input) throws IOException {
+        String header = readLine(input);
+        if (header == null) {
+            return null;
+        }
+        if (header.charAt(0) != '*') {
+            throw new IOException("unsupported inline command: " + header);
+        }
+        int size = Integer.parseInt(header.substring(1));
+        List<String> command = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            String bulkHeader = readLine(input);
+            if (bulkHeader == null || bulkHeader.charAt(0) != '$') {
+                throw new IOException("bulk string expected");
+            }
+            byte[] bytes = new byte[Integer.parseInt(bulkHeader.substring(1))];
+            input.readFully(bytes);
+            input.readFully(new byte[2]);
+            command.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return command;
+    }
+
+    private static @Nullable String readLine(DataInputStream input) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (int b = input.read(), prev = -1; ; prev = b, b = input.read()) {
+            if (b < 0) {
+                return null;
+            }
+            if (prev == '\r' && b == '\n') {
+                byte[] bytes = buffer.toByteArray();
+                return new String(bytes, 0, bytes.length - 1, StandardCharsets.UTF_8);
+            }
+            buffer.write(b);
+        }
+    }
+
+    private static void writeSimple(OutputStream output, String string) throws IOException {
+        output.write(("+" + string + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeError(OutputStream output, String message) throws IOException {
+        output.write(("-" + message + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeInteger(OutputStream output, long value) throws IOException {
+        output.write((":" + value + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeHeader(OutputStream output, char type, int size) throws IOException {
+        output.write((type + Integer.toString(size) + "\r\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBulk(OutputStream output, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        writeHeader(output, '$', bytes.length);
+        output.write(bytes);
+        output.write("\r\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha1(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}